@@ -15,6 +15,8 @@
  */
 package com.facebook.presto.accumulo.examples;
 
+import com.facebook.presto.accumulo.iterators.HeavyHitters;
+import com.facebook.presto.accumulo.iterators.NGramIndex;
 import org.apache.accumulo.core.client.lexicoder.DoubleLexicoder;
 import org.apache.accumulo.core.client.lexicoder.LongLexicoder;
 import org.apache.accumulo.core.client.lexicoder.StringLexicoder;
@@ -28,6 +30,8 @@ public class Constants
 {
     public static final String DATA_TABLE = "tpch";
     public static final String INDEX_TABLE = "tpch_index";
+    public static final String NGRAM_TABLE = NGramIndex.getIndexTableName(DATA_TABLE);
+    public static final String METRICS_TABLE = HeavyHitters.getMetricsTableName(DATA_TABLE);
 
     public static final byte[] CF = "cf".getBytes();
     public static final byte[] CUSTKEY = "custkey".getBytes();
@@ -40,6 +44,7 @@ public class Constants
     public static final byte[] COMMENT = "comment".getBytes();
     public static final byte[] EMPTY_BYTES = "".getBytes();
 
+    public static final String CF_STR = "cf";
     public static final String CUSTKEY_STR = "custkey";
     public static final String ORDERSTATUS_STR = "orderstatus";
     public static final String TOTALPRICE_STR = "totalprice";
@@ -16,17 +16,22 @@
 package com.facebook.presto.accumulo.examples;
 
 import com.facebook.presto.accumulo.conf.AccumuloConfig;
+import com.facebook.presto.accumulo.iterators.HeavyHitters;
+import com.facebook.presto.accumulo.iterators.NGramIndex;
+import com.facebook.presto.accumulo.iterators.SpaceSavingSketch;
 import com.facebook.presto.accumulo.tools.Task;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.MultiTableBatchWriter;
 import org.apache.accumulo.core.client.TableExistsException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.ZooKeeperInstance;
 import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.ArrayByteSequence;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
@@ -38,15 +43,21 @@ import org.apache.hadoop.fs.Path;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Date;
 
 import static com.facebook.presto.accumulo.examples.Constants.CF;
+import static com.facebook.presto.accumulo.examples.Constants.CF_STR;
 import static com.facebook.presto.accumulo.examples.Constants.CLERK;
+import static com.facebook.presto.accumulo.examples.Constants.CLERK_STR;
 import static com.facebook.presto.accumulo.examples.Constants.COMMENT;
 import static com.facebook.presto.accumulo.examples.Constants.CUSTKEY;
 import static com.facebook.presto.accumulo.examples.Constants.DATA_TABLE;
 import static com.facebook.presto.accumulo.examples.Constants.EMPTY_BYTES;
 import static com.facebook.presto.accumulo.examples.Constants.INDEX_TABLE;
+import static com.facebook.presto.accumulo.examples.Constants.METRICS_TABLE;
+import static com.facebook.presto.accumulo.examples.Constants.NGRAM_TABLE;
 import static com.facebook.presto.accumulo.examples.Constants.ORDERDATE;
 import static com.facebook.presto.accumulo.examples.Constants.ORDERPRIORITY;
 import static com.facebook.presto.accumulo.examples.Constants.ORDERSTATUS;
@@ -80,14 +91,22 @@ public class TpcHBatchWriter
 
         validateTable(conn, DATA_TABLE);
         validateTable(conn, INDEX_TABLE);
+        validateTable(conn, NGRAM_TABLE);
+        validateTable(conn, METRICS_TABLE);
+
+        // Merge the heavy hitter sketches of the clerk index written by each ingest
+        HeavyHitters.attachCombiner(conn, METRICS_TABLE, Collections.singletonList(new IteratorSetting.Column(CF_STR, CLERK_STR)));
 
         BatchWriterConfig bwc = new BatchWriterConfig();
         MultiTableBatchWriter mtbw = conn.createMultiTableBatchWriter(bwc);
         BatchWriter mainWrtr = mtbw.getBatchWriter(DATA_TABLE);
         BatchWriter indexWrtr = mtbw.getBatchWriter(INDEX_TABLE);
+        BatchWriter ngramWrtr = mtbw.getBatchWriter(NGRAM_TABLE);
 
         long numTweets = 0;
         long numIndex = 0;
+        long numNGram = 0;
+        SpaceSavingSketch clerkSketch = new SpaceSavingSketch(SpaceSavingSketch.DEFAULT_CAPACITY);
 
         System.out.println(format("Reading from file: %s", orders));
         BufferedReader rdr = new BufferedReader(new InputStreamReader(fs.open(orders)));
@@ -130,16 +149,34 @@ public class TpcHBatchWriter
             Mutation idxClerk = new Mutation(encode(clerk));
             idxClerk.put(CF, encode(orderkey), EMPTY_BYTES);
             indexWrtr.addMutation(idxClerk);
+            clerkSketch.add(new ArrayByteSequence(encode(clerk)));
             ++numIndex;
+
+            // Create n-gram index mutation for the comment, for substring searches
+            byte[] encodedOrderkey = encode(orderkey);
+            Mutation idxComment = new Mutation(NGramIndex.getShard(encodedOrderkey, NGramIndex.DEFAULT_NUM_SHARDS));
+            for (ByteBuffer ngram : NGramIndex.getNGrams(encode(comment), NGramIndex.DEFAULT_NGRAM_SIZE)) {
+                idxComment.put(NGramIndex.getIndexFamily(CF, COMMENT, ngram), encodedOrderkey, EMPTY_BYTES);
+            }
+
+            if (idxComment.size() > 0) {
+                ngramWrtr.addMutation(idxComment);
+                ++numNGram;
+            }
         }
         rdr.close();
 
+        // Add the sketch of the clerks to the metrics table
+        mtbw.getBatchWriter(METRICS_TABLE).addMutation(HeavyHitters.getMutation(CF, CLERK, clerkSketch));
+
         // Send the mutations to Accumulo and release resources
         mtbw.close();
 
         // Display how many tweets were inserted into Accumulo
         System.out.println(format("%d tweets Mutations inserted", numTweets));
         System.out.println(format("%d index Mutations inserted", numIndex));
+        System.out.println(format("%d n-gram index Mutations inserted", numNGram));
+        System.out.println(format("Clerk heavy hitters: %s", clerkSketch));
         return 0;
     }
 
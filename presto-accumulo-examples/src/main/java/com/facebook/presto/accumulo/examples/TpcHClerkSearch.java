@@ -16,16 +16,24 @@
 package com.facebook.presto.accumulo.examples;
 
 import com.facebook.presto.accumulo.conf.AccumuloConfig;
+import com.facebook.presto.accumulo.iterators.ColumnarBatch;
+import com.facebook.presto.accumulo.iterators.ColumnarBatchIterator;
+import com.facebook.presto.accumulo.iterators.HeavyHitters;
+import com.facebook.presto.accumulo.iterators.OrFilter;
+import com.facebook.presto.accumulo.iterators.SingleColumnValueFilter;
+import com.facebook.presto.accumulo.iterators.SingleColumnValueFilter.CompareOp;
+import com.facebook.presto.accumulo.iterators.SpaceSavingSketch;
 import com.facebook.presto.accumulo.tools.Task;
+import com.google.common.collect.ImmutableList;
 import org.apache.accumulo.core.client.BatchScanner;
 import org.apache.accumulo.core.client.Connector;
 import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.accumulo.core.client.ZooKeeperInstance;
 import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.ArrayByteSequence;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
-import org.apache.accumulo.core.iterators.user.WholeRowIterator;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
@@ -33,23 +41,30 @@ import org.apache.commons.cli.Options;
 import org.apache.hadoop.io.Text;
 
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 import java.util.regex.Pattern;
 
+import static com.facebook.presto.accumulo.examples.Constants.CF;
+import static com.facebook.presto.accumulo.examples.Constants.CF_STR;
+import static com.facebook.presto.accumulo.examples.Constants.CLERK;
 import static com.facebook.presto.accumulo.examples.Constants.CLERK_STR;
 import static com.facebook.presto.accumulo.examples.Constants.COMMENT_STR;
 import static com.facebook.presto.accumulo.examples.Constants.CUSTKEY_STR;
 import static com.facebook.presto.accumulo.examples.Constants.DATA_TABLE;
 import static com.facebook.presto.accumulo.examples.Constants.INDEX_TABLE;
+import static com.facebook.presto.accumulo.examples.Constants.METRICS_TABLE;
 import static com.facebook.presto.accumulo.examples.Constants.ORDERDATE_STR;
 import static com.facebook.presto.accumulo.examples.Constants.ORDERPRIORITY_STR;
 import static com.facebook.presto.accumulo.examples.Constants.ORDERSTATUS_STR;
 import static com.facebook.presto.accumulo.examples.Constants.SHIPPRIORITY_STR;
 import static com.facebook.presto.accumulo.examples.Constants.TOTALPRICE_STR;
 import static com.facebook.presto.accumulo.examples.Constants.decode;
+import static com.facebook.presto.accumulo.examples.Constants.encode;
 import static java.lang.String.format;
 
 @SuppressWarnings("static-access")
@@ -60,6 +75,29 @@ public class TpcHClerkSearch
     private static final String DESCRIPTION = "Example for searching the TPC-H table for all orders by a given clerk";
     private static final char CLERK_ID = 'c';
 
+    // Estimated number of orders above which the clerks are found by filtering the data table instead of the index
+    private static final long FULL_SCAN_THRESHOLD = 100000;
+
+    // Projected columns, in dictionary ID order
+    private static final List<IteratorSetting.Column> COLUMNS = ImmutableList.of(
+            new IteratorSetting.Column(CF_STR, CUSTKEY_STR),
+            new IteratorSetting.Column(CF_STR, ORDERSTATUS_STR),
+            new IteratorSetting.Column(CF_STR, TOTALPRICE_STR),
+            new IteratorSetting.Column(CF_STR, ORDERDATE_STR),
+            new IteratorSetting.Column(CF_STR, ORDERPRIORITY_STR),
+            new IteratorSetting.Column(CF_STR, CLERK_STR),
+            new IteratorSetting.Column(CF_STR, SHIPPRIORITY_STR),
+            new IteratorSetting.Column(CF_STR, COMMENT_STR));
+
+    private static final int CUSTKEY_COL = 0;
+    private static final int ORDERSTATUS_COL = 1;
+    private static final int TOTALPRICE_COL = 2;
+    private static final int ORDERDATE_COL = 3;
+    private static final int ORDERPRIORITY_COL = 4;
+    private static final int CLERK_COL = 5;
+    private static final int SHIPPRIORITY_COL = 6;
+    private static final int COMMENT_COL = 7;
+
     private Pattern clerkRegex = Pattern.compile("Clerk#[0-9]{9}");
 
     @Override
@@ -91,102 +129,98 @@ public class TpcHClerkSearch
             }
         }
 
-        // Set the search ranges for our scanner
-        idxScanner.setRanges(searchRanges);
+        // Estimate the number of orders of the clerks from the heavy hitters of the clerk index
+        long estimate = estimateOrders(conn, searchTerms);
 
-        // A list to hold all of the order IDs
-        LinkedList<Range> orderIds = new LinkedList<Range>();
-        String orderId;
+        // Initialize the batch scanner to scan the data table, packing the
+        // projected columns of many rows into each column-major block
+        BatchScanner dataScanner = conn.createBatchScanner(DATA_TABLE, new Authorizations(), 10);
+        if (estimate > FULL_SCAN_THRESHOLD) {
+            // Seeking to each order of a heavy clerk costs more than filtering every row on the tablet servers
+            System.out.println(format("Scanning data table for an estimated %d orders", estimate));
+            idxScanner.close();
 
-        // Process all of the records returned by the batch scanner
-        for (Map.Entry<Key, Value> record : idxScanner) {
-            // Get the order ID and add it to the list of order IDs
-            orderIds.add(new Range(record.getKey().getColumnQualifier()));
+            List<IteratorSetting> clerkFilters = new ArrayList<>();
+            for (String searchTerm : searchTerms) {
+                clerkFilters.add(new IteratorSetting(1, "clerk" + clerkFilters.size(), SingleColumnValueFilter.class,
+                        SingleColumnValueFilter.getProperties(CF_STR, CLERK_STR, CompareOp.EQUAL, encode(searchTerm))));
+            }
+            dataScanner.setRanges(Collections.singletonList(new Range()));
+            dataScanner.addScanIterator(OrFilter.orFilters(1, clerkFilters));
         }
+        else {
+            // Set the search ranges for our scanner
+            idxScanner.setRanges(searchRanges);
 
-        // Close the batch scanner
-        idxScanner.close();
+            // A list to hold all of the order IDs
+            LinkedList<Range> orderIds = new LinkedList<Range>();
+            String orderId;
 
-        // If clerkIDs is empty, log a message and return 0
-        if (orderIds.isEmpty()) {
-            System.out.println("Found no orders with the given Clerk ID(s)");
-            return 0;
-        }
-        else {
-            System.out.println(format("Searching data table for %d orders", orderIds.size()));
+            // Process all of the records returned by the batch scanner
+            for (Map.Entry<Key, Value> record : idxScanner) {
+                // Get the order ID and add it to the list of order IDs
+                orderIds.add(new Range(record.getKey().getColumnQualifier()));
+            }
+
+            // Close the batch scanner
+            idxScanner.close();
+
+            // If clerkIDs is empty, log a message and return 0
+            if (orderIds.isEmpty()) {
+                System.out.println("Found no orders with the given Clerk ID(s)");
+                dataScanner.close();
+                return 0;
+            }
+            else {
+                System.out.println(format("Searching data table for %d orders", orderIds.size()));
+            }
+
+            dataScanner.setRanges(orderIds);
         }
 
-        // Initialize the batch scanner to scan the data table with
-        // the previously found order IDs as the ranges
-        BatchScanner dataScanner = conn.createBatchScanner(DATA_TABLE, new Authorizations(), 10);
-        dataScanner.setRanges(orderIds);
-        dataScanner.addScanIterator(new IteratorSetting(1, WholeRowIterator.class));
-
-        Text row = new Text(); // The row ID
-        Text colQual = new Text(); // The column qualifier of the current record
-
-        Long orderkey = null;
-        Long custkey = null;
-        String orderstatus = null;
-        Double totalprice = null;
-        Date orderdate = null;
-        String orderpriority = null;
-        String clerk = null;
-        Long shippriority = null;
-        String comment = null;
+        IteratorSetting batchSetting = new IteratorSetting(2, ColumnarBatchIterator.class);
+        ColumnarBatchIterator.setColumns(batchSetting, COLUMNS);
+        dataScanner.addScanIterator(batchSetting);
+
+        long[] custkeys = new long[0];
+        double[] totalprices = new double[0];
+        long[] orderdates = new long[0];
+        long[] shippriorities = new long[0];
 
         int numTweets = 0;
-        // Process all of the records returned by the batch scanner
+        // Process all of the blocks returned by the batch scanner
         for (Map.Entry<Key, Value> entry : dataScanner) {
-            entry.getKey().getRow(row);
-            orderkey = decode(Long.class, row.getBytes(), row.getLength());
-            SortedMap<Key, Value> rowMap = WholeRowIterator.decodeRow(entry.getKey(), entry.getValue());
-            for (Map.Entry<Key, Value> record : rowMap.entrySet()) {
-                // Get the column qualifier from the record's key
-                record.getKey().getColumnQualifier(colQual);
-
-                switch (colQual.toString()) {
-                    case CUSTKEY_STR:
-                        custkey = decode(Long.class, record.getValue().get());
-                        break;
-                    case ORDERSTATUS_STR:
-                        orderstatus = decode(String.class, record.getValue().get());
-                        break;
-                    case TOTALPRICE_STR:
-                        totalprice = decode(Double.class, record.getValue().get());
-                        break;
-                    case ORDERDATE_STR:
-                        orderdate = decode(Date.class, record.getValue().get());
-                        break;
-                    case ORDERPRIORITY_STR:
-                        orderpriority = decode(String.class, record.getValue().get());
-                        break;
-                    case CLERK_STR:
-                        clerk = decode(String.class, record.getValue().get());
-                        break;
-                    case SHIPPRIORITY_STR:
-                        shippriority = decode(Long.class, record.getValue().get());
-                        break;
-                    case COMMENT_STR:
-                        comment = decode(String.class, record.getValue().get());
-                        break;
-                    default:
-                        throw new RuntimeException("Unknown column qualifier " + colQual);
-                }
+            ColumnarBatch batch = ColumnarBatch.decode(entry.getValue());
+            int numRows = batch.getRowCount();
+            if (custkeys.length < numRows) {
+                custkeys = new long[numRows];
+                totalprices = new double[numRows];
+                orderdates = new long[numRows];
+                shippriorities = new long[numRows];
             }
 
-            ++numTweets;
-            // Write the screen name and text to stdout
-            System.out.println(format("%d|%d|%s|%f|%s|%s|%s|%d|%s", orderkey, custkey, orderstatus, totalprice, orderdate, orderpriority, clerk, shippriority, comment));
-
-            custkey = null;
-            shippriority = null;
-            orderstatus = null;
-            orderpriority = null;
-            clerk = null;
-            comment = null;
-            totalprice = null;
-            orderdate = null;
+            // Decode the numeric columns in bulk
+            batch.getLongs(CUSTKEY_COL, custkeys);
+            batch.getDoubles(TOTALPRICE_COL, totalprices);
+            batch.getLongs(ORDERDATE_COL, orderdates);
+            batch.getLongs(SHIPPRIORITY_COL, shippriorities);
+
+            for (int i = 0; i < numRows; ++i) {
+                Text row = batch.getRow(i);
+                Long orderkey = decode(Long.class, row.getBytes(), row.getLength());
+
+                ++numTweets;
+                // Write the screen name and text to stdout
+                System.out.println(format("%d|%d|%s|%f|%s|%s|%s|%d|%s", orderkey,
+                        batch.isNull(CUSTKEY_COL, i) ? null : custkeys[i],
+                        batch.getString(ORDERSTATUS_COL, i),
+                        batch.isNull(TOTALPRICE_COL, i) ? null : totalprices[i],
+                        batch.isNull(ORDERDATE_COL, i) ? null : new Date(orderdates[i]),
+                        batch.getString(ORDERPRIORITY_COL, i),
+                        batch.getString(CLERK_COL, i),
+                        batch.isNull(SHIPPRIORITY_COL, i) ? null : shippriorities[i],
+                        batch.getString(COMMENT_COL, i)));
+            }
         }
 
         // Close the batch scanner
@@ -199,6 +233,25 @@ public class TpcHClerkSearch
         return 0;
     }
 
+    private long estimateOrders(Connector conn, String[] clerks)
+            throws Exception
+    {
+        if (!conn.tableOperations().exists(METRICS_TABLE)) {
+            return -1;
+        }
+
+        SpaceSavingSketch sketch = HeavyHitters.getSketch(conn, METRICS_TABLE, CF, CLERK, new Authorizations());
+        if (sketch == null) {
+            return -1;
+        }
+
+        long estimate = 0;
+        for (String clerk : clerks) {
+            estimate += sketch.estimate(new ArrayByteSequence(encode(clerk)));
+        }
+        return estimate;
+    }
+
     private void validateExists(Connector conn, String table)
     {
         if (!conn.tableOperations().exists(table)) {
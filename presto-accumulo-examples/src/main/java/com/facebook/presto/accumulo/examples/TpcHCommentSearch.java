@@ -0,0 +1,168 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.examples;
+
+import com.facebook.presto.accumulo.conf.AccumuloConfig;
+import com.facebook.presto.accumulo.iterators.BoundedWholeRowIterator;
+import com.facebook.presto.accumulo.iterators.NGramIndex;
+import com.facebook.presto.accumulo.iterators.NGramIntersectingIterator;
+import com.facebook.presto.accumulo.iterators.SubstringFilter;
+import com.facebook.presto.accumulo.iterators.WideRowGuard;
+import com.facebook.presto.accumulo.tools.Task;
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.ZooKeeperInstance;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.user.WholeRowIterator;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.io.Text;
+
+import java.security.InvalidParameterException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import static com.facebook.presto.accumulo.examples.Constants.CF_STR;
+import static com.facebook.presto.accumulo.examples.Constants.COMMENT_STR;
+import static com.facebook.presto.accumulo.examples.Constants.DATA_TABLE;
+import static com.facebook.presto.accumulo.examples.Constants.NGRAM_TABLE;
+import static com.facebook.presto.accumulo.examples.Constants.decode;
+import static com.facebook.presto.accumulo.examples.Constants.encode;
+import static java.lang.String.format;
+
+@SuppressWarnings("static-access")
+public class TpcHCommentSearch
+        extends Task
+{
+    private static final String TASK_NAME = "commentsearch";
+    private static final String DESCRIPTION = "Example for searching the TPC-H table for all orders with a comment containing a term, using the n-gram index";
+    private static final char TERM = 't';
+
+    // Orders have a handful of columns, so anything wider is split into chunks rather than buffered whole
+    private static final long MAX_ROW_CELLS = 1000;
+    private static final long MAX_ROW_BYTES = 1024 * 1024;
+
+    @Override
+    public int run(AccumuloConfig config, CommandLine cmd)
+            throws Exception
+    {
+        byte[] term = encode(cmd.getOptionValue(TERM));
+        if (!NGramIntersectingIterator.isSearchable(term, NGramIndex.DEFAULT_NGRAM_SIZE)) {
+            throw new InvalidParameterException(format("Search term must be at least %d bytes", NGramIndex.DEFAULT_NGRAM_SIZE));
+        }
+
+        ZooKeeperInstance inst = new ZooKeeperInstance(config.getInstance(), config.getZooKeepers());
+        Connector conn = inst.getConnector(config.getUsername(), new PasswordToken(config.getPassword()));
+
+        // Ensure both tables exists
+        validateExists(conn, DATA_TABLE);
+        validateExists(conn, NGRAM_TABLE);
+
+        long start = System.currentTimeMillis();
+
+        // Intersect the postings of each n-gram of the term across all shards of the n-gram index
+        BatchScanner idxScanner = conn.createBatchScanner(NGRAM_TABLE, new Authorizations(), 10);
+        idxScanner.setRanges(Collections.singleton(new Range()));
+        idxScanner.addScanIterator(new IteratorSetting(1, "ngram", NGramIntersectingIterator.class, NGramIntersectingIterator.getProperties(CF_STR, COMMENT_STR, term)));
+
+        // The column qualifier of each result is the row ID of a candidate order
+        LinkedList<Range> orderIds = new LinkedList<>();
+        for (Map.Entry<Key, Value> record : idxScanner) {
+            orderIds.add(new Range(record.getKey().getColumnQualifier()));
+        }
+
+        idxScanner.close();
+
+        if (orderIds.isEmpty()) {
+            System.out.println("Found no orders with a comment containing the search term");
+            return 0;
+        }
+        else {
+            System.out.println(format("Verifying %d candidate orders", orderIds.size()));
+        }
+
+        // Scan the candidate rows, verifying the comment actually contains the term
+        BatchScanner dataScanner = conn.createBatchScanner(DATA_TABLE, new Authorizations(), 10);
+        dataScanner.setRanges(orderIds);
+        dataScanner.addScanIterator(new IteratorSetting(1, "substring", SubstringFilter.class, SubstringFilter.getProperties(CF_STR, COMMENT_STR, term)));
+        IteratorSetting wholeRow = new IteratorSetting(2, BoundedWholeRowIterator.class);
+        WideRowGuard.setRowLimits(wholeRow, MAX_ROW_CELLS, MAX_ROW_BYTES, WideRowGuard.Policy.CHUNK);
+        dataScanner.addScanIterator(wholeRow);
+
+        Text row = new Text();
+        Text colQual = new Text();
+
+        // A wide row may be returned in several chunks, so count the distinct orders
+        Set<Long> orderkeys = new HashSet<>();
+        for (Map.Entry<Key, Value> entry : dataScanner) {
+            entry.getKey().getRow(row);
+            Long orderkey = decode(Long.class, row.getBytes(), row.getLength());
+            SortedMap<Key, Value> rowMap = WholeRowIterator.decodeRow(entry.getKey(), entry.getValue());
+            for (Map.Entry<Key, Value> record : rowMap.entrySet()) {
+                record.getKey().getColumnQualifier(colQual);
+                if (colQual.toString().equals(COMMENT_STR)) {
+                    System.out.println(format("%d|%s", orderkey, decode(String.class, record.getValue().get())));
+                }
+            }
+            orderkeys.add(orderkey);
+        }
+
+        dataScanner.close();
+
+        long finish = System.currentTimeMillis();
+
+        System.out.format("Found %d orders in %s ms\n", orderkeys.size(), (finish - start));
+        return 0;
+    }
+
+    private void validateExists(Connector conn, String table)
+    {
+        if (!conn.tableOperations().exists(table)) {
+            throw new InvalidParameterException(format("Error: Table %s does not exist", table));
+        }
+    }
+
+    @Override
+    public String getTaskName()
+    {
+        return TASK_NAME;
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return DESCRIPTION;
+    }
+
+    @Override
+    public Options getOptions()
+    {
+        Options opts = new Options();
+        opts.addOption(OptionBuilder.withLongOpt("term").withDescription("Term to search for in the order comments")
+                .hasArg().isRequired().create(TERM));
+        return opts;
+    }
+}
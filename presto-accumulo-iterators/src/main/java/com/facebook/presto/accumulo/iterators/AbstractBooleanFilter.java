@@ -39,17 +39,28 @@ public abstract class AbstractBooleanFilter
         extends RowFilter
 {
     private static final String FILTER_JAVA_CLASS_NAME = "abstract.boolean.filter.java.class.name";
+    private static final String NEGATE = "abstract.boolean.filter.negate";
     private static final Logger LOG = Logger.getLogger(AbstractBooleanFilter.class);
 
     protected List<RowFilter> filters = new ArrayList<>();
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
+    private WideRowGuard guard;
+    private long wideRows = 0;
+    private boolean negate;
+
     @Override
     public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
             throws IOException
     {
         super.init(source, options, env);
+        guard = WideRowGuard.fromOptions(options);
+        negate = Boolean.parseBoolean(options.get(NEGATE));
         for (Entry<String, String> e : options.entrySet()) {
+            if (WideRowGuard.isGuardOption(e.getKey()) || e.getKey().equals(NEGATE)) {
+                continue;
+            }
+
             try {
                 Map<String, String> props = OBJECT_MAPPER.readValue(e.getValue(), new TypeReference<Map<String, String>>()
                 {});
@@ -65,6 +76,39 @@ public abstract class AbstractBooleanFilter
         }
     }
 
+    @Override
+    public boolean acceptRow(SortedKeyValueIterator<Key, Value> rowIterator)
+            throws IOException
+    {
+        if (guard == null) {
+            return evaluate(rowIterator) != negate;
+        }
+
+        guard.reset(rowIterator);
+        boolean accept = evaluate(guard);
+        if (guard.isExceeded()) {
+            ++wideRows;
+            if (guard.getPolicy() == WideRowGuard.Policy.SKIP) {
+                LOG.warn(String.format("%s: Skipped row %s over the limits of %s, %d wide rows so far", super.toString(), guard.getRow(), guard, wideRows));
+
+                // A negated filter keeps the rows it could not evaluate, rather than dropping them unseen
+                return negate;
+            }
+            LOG.debug(String.format("%s: Evaluated row %s over the limits of %s, %d wide rows so far", super.toString(), guard.getRow(), guard, wideRows));
+        }
+        return accept != negate;
+    }
+
+    /**
+     * Evaluates the filters over a row, which is guarded by the row limits if any are set
+     *
+     * @param rowIterator Iterator over the cells of the row
+     * @return True if the row is accepted
+     * @throws IOException If an error occurs reading the row
+     */
+    protected abstract boolean evaluate(SortedKeyValueIterator<Key, Value> rowIterator)
+            throws IOException;
+
     protected static IteratorSetting combineFilters(Class<? extends AbstractBooleanFilter> clazz, int priority, IteratorSetting... configs)
     {
         if (configs == null || configs.length == 0) {
@@ -91,6 +135,18 @@ public abstract class AbstractBooleanFilter
         return new IteratorSetting(priority, UUID.randomUUID().toString(), clazz, props);
     }
 
+    /**
+     * Negates the filter, so it accepts the rows it would otherwise reject. Used as a compaction iterator, a negated
+     * filter drops the rows that match it.
+     *
+     * @param is IteratorSetting of a combined filter
+     * @param negate True to negate the filter
+     */
+    public static void setNegate(IteratorSetting is, boolean negate)
+    {
+        is.addOption(NEGATE, Boolean.toString(negate));
+    }
+
     @Override
     public String toString()
     {
@@ -34,7 +34,7 @@ public class AndFilter
     private static final HashSet<ByteSequence> SEEK_HASH_SET = new HashSet<>();
 
     @Override
-    public boolean acceptRow(SortedKeyValueIterator<Key, Value> rowIterator)
+    protected boolean evaluate(SortedKeyValueIterator<Key, Value> rowIterator)
             throws IOException
     {
         for (RowFilter f : filters) {
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.user.RowFilter;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.apache.accumulo.core.client.lexicoder.impl.ByteUtils.escape;
+
+/**
+ * Accepts rows where an ARRAY column, encoded by the ListLexicoder, contains the given encoded element,
+ * i.e. contains(arr, 'x'). The encoded list is walked in place, comparing each escaped element to the escaped
+ * search element, so no elements are unescaped or copied.
+ */
+public class ArrayContainsFilter
+        extends RowFilter
+        implements OptionDescriber
+{
+    protected static final String CF = "family";
+    protected static final String CQ = "qualifier";
+    protected static final String ELEMENT = "element";
+
+    private Text columnFamily;
+    private Text columnQualifier;
+    private byte[] escapedElement;
+
+    @Override
+    public boolean acceptRow(SortedKeyValueIterator<Key, Value> rowIterator)
+            throws IOException
+    {
+        while (rowIterator.hasTop()) {
+            Key k = rowIterator.getTopKey();
+            if (k.compareColumnQualifier(columnQualifier) == 0 && k.compareColumnFamily(columnFamily) == 0) {
+                return contains(rowIterator.getTopValue().get(), escapedElement);
+            }
+            rowIterator.next();
+        }
+
+        return false;
+    }
+
+    /**
+     * Tests if a list encoded by the ListLexicoder contains an element. The ListLexicoder encodes both the empty list
+     * and the list of a single empty element as no bytes at all, which is taken to be the empty list, so it contains
+     * nothing.
+     *
+     * @param list Encoded list
+     * @param escapedElement Element, escaped using ByteUtils#escape
+     * @return True if the list contains the element, false otherwise
+     */
+    public static boolean contains(byte[] list, byte[] escapedElement)
+    {
+        if (list.length == 0) {
+            return false;
+        }
+
+        // The offset reaches the length after a trailing separator, where the last element is empty
+        int offset = 0;
+        while (offset <= list.length) {
+            int end = Lexicoders.getElementEnd(list, offset);
+            if (end - offset == escapedElement.length && WritableComparator.compareBytes(list, offset, end - offset, escapedElement, 0, escapedElement.length) == 0) {
+                return true;
+            }
+            offset = end + 1;
+        }
+        return false;
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        columnFamily = new Text(options.get(CF));
+        columnQualifier = new Text(options.get(CQ));
+
+        try {
+            escapedElement = escape(Hex.decodeHex(options.get(ELEMENT).toCharArray()));
+        }
+        catch (DecoderException e) {
+            // should not occur, as validateOptions tries this same thing
+            throw new IllegalArgumentException("Error decoding hex value in option", e);
+        }
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        ArrayContainsFilter copy = new ArrayContainsFilter();
+        copy.columnFamily = new Text(this.columnFamily);
+        copy.columnQualifier = new Text(this.columnQualifier);
+        copy.escapedElement = this.escapedElement;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("arraycontainsfilter", "Filter accepts or rejects each row based on whether or not the list stored in a single column family/qualifier contains the given element",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(CF, "column family to match on, required").put(CQ, "column qualifier to match on, required").put(ELEMENT, "Hex-encoded bytes of the lexicoded element to search for, required").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(CF, options);
+        checkNotNull(CQ, options);
+        checkNotNull(ELEMENT, options);
+
+        try {
+            Hex.decodeHex(options.get(ELEMENT).toCharArray());
+        }
+        catch (DecoderException e) {
+            throw new IllegalArgumentException("Option " + ELEMENT + " is not a hex-encoded value: " + options.get(ELEMENT), e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier, byte[] element)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(CF, family);
+        opts.put(CQ, qualifier);
+        opts.put(ELEMENT, Hex.encodeHexString(element));
+
+        return opts;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("ArrayContainsFilter{columnFamily=%s,columnQualifier=%s,escapedElement=%s}", columnFamily, columnQualifier, Hex.encodeHexString(escapedElement));
+    }
+}
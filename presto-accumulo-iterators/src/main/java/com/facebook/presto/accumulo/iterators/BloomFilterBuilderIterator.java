@@ -0,0 +1,238 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link ValueSetSummary} of the values of a single column family/qualifier, i.e. the join keys of the build
+ * side of a join, so they can be pushed into the probe side scan using the {@link BloomMembershipFilter}.
+ * <p>
+ * Like the {@link ValueSummingIterator}, the entire range is consumed and a single Key/Value pair is emitted whose Key
+ * is the last Key read and whose Value is the serialized summary: the exact sorted values when there are at most
+ * maxValues of them, otherwise a Bloom filter. Use {@link BloomFilterBuilderIterator#merge} to OR the summaries of
+ * all tablets on the client. As every tablet emits a filter sized for the expected number of values, about 1.2 bytes
+ * per value at a 1% false positive rate, set expectedValues for build sides larger than the default of 10,000 values.
+ */
+public class BloomFilterBuilderIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    protected static final String CF = "family";
+    protected static final String CQ = "qualifier";
+    protected static final String MAX_VALUES = "maxValues";
+    protected static final String EXPECTED_VALUES = "expectedValues";
+    protected static final String FALSE_POSITIVE_RATE = "falsePositiveRate";
+
+    private static final int DEFAULT_MAX_VALUES = 1000;
+    // About 12 KB of Bloom filter at the default false positive rate, which is emitted by every tablet
+    private static final long DEFAULT_EXPECTED_VALUES = 10000;
+    private static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private Text columnFamily;
+    private Text columnQualifier;
+    private int maxValues;
+    private long expectedValues;
+    private double falsePositiveRate;
+
+    private Key topKey = null;
+    private Value topValue = null;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+        columnFamily = new Text(options.get(CF));
+        columnQualifier = new Text(options.get(CQ));
+        maxValues = options.containsKey(MAX_VALUES) ? Integer.parseInt(options.get(MAX_VALUES)) : DEFAULT_MAX_VALUES;
+        expectedValues = options.containsKey(EXPECTED_VALUES) ? Long.parseLong(options.get(EXPECTED_VALUES)) : DEFAULT_EXPECTED_VALUES;
+        falsePositiveRate = options.containsKey(FALSE_POSITIVE_RATE) ? Double.parseDouble(options.get(FALSE_POSITIVE_RATE)) : DEFAULT_FALSE_POSITIVE_RATE;
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        super.seek(range, columnFamilies, inclusive);
+        topKey = null;
+        topValue = null;
+
+        ValueSetSummary summary = ValueSetSummary.create(maxValues, expectedValues, falsePositiveRate);
+        Key lastKey = null;
+        while (getSource().hasTop()) {
+            Key key = getSource().getTopKey();
+            lastKey = new Key(key);
+            if (!key.isDeleted() && key.compareColumnFamily(columnFamily) == 0 && key.compareColumnQualifier(columnQualifier) == 0) {
+                summary.add(new ArrayByteSequence(getSource().getTopValue().get()));
+            }
+            getSource().next();
+        }
+
+        // Key the result by the last Key read so the range is fully consumed from the client's point of view
+        if (lastKey != null) {
+            topKey = lastKey;
+            topValue = new Value(summary.toBytes());
+        }
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        topKey = null;
+        topValue = null;
+    }
+
+    @Override
+    public boolean hasTop()
+    {
+        return topKey != null;
+    }
+
+    @Override
+    public Key getTopKey()
+    {
+        return topKey;
+    }
+
+    @Override
+    public Value getTopValue()
+    {
+        return topValue;
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        BloomFilterBuilderIterator copy = new BloomFilterBuilderIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.columnFamily = new Text(this.columnFamily);
+        copy.columnQualifier = new Text(this.columnQualifier);
+        copy.maxValues = this.maxValues;
+        copy.expectedValues = this.expectedValues;
+        copy.falsePositiveRate = this.falsePositiveRate;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("bloomfilterbuilderiterator", "Emits a summary of the values of a single column family/qualifier for each range, either the sorted values or a Bloom filter",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(CF, "column family to summarize, required").put(CQ, "column qualifier to summarize, required").put(MAX_VALUES, "Maximum number of values to emit exactly before using a Bloom filter, default " + DEFAULT_MAX_VALUES).put(EXPECTED_VALUES, "Expected number of distinct values across all tablets, default " + DEFAULT_EXPECTED_VALUES).put(FALSE_POSITIVE_RATE, "False positive rate of the Bloom filter at the expected number of values, default " + DEFAULT_FALSE_POSITIVE_RATE).build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(CF, options);
+        checkNotNull(CQ, options);
+
+        try {
+            if (options.containsKey(MAX_VALUES) && Integer.parseInt(options.get(MAX_VALUES)) < 0) {
+                throw new IllegalArgumentException("Option " + MAX_VALUES + " must not be negative");
+            }
+
+            if (options.containsKey(EXPECTED_VALUES) && Long.parseLong(options.get(EXPECTED_VALUES)) <= 0) {
+                throw new IllegalArgumentException("Option " + EXPECTED_VALUES + " must be positive");
+            }
+
+            if (options.containsKey(FALSE_POSITIVE_RATE)) {
+                double rate = Double.parseDouble(options.get(FALSE_POSITIVE_RATE));
+                if (!(rate > 0 && rate < 1)) {
+                    throw new IllegalArgumentException("Option " + FALSE_POSITIVE_RATE + " must be between 0 and 1 exclusive");
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad summary option", e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(CF, family);
+        opts.put(CQ, qualifier);
+
+        return opts;
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier, int maxValues, long expectedValues, double falsePositiveRate)
+    {
+        Map<String, String> opts = getProperties(family, qualifier);
+
+        opts.put(MAX_VALUES, Integer.toString(maxValues));
+        opts.put(EXPECTED_VALUES, Long.toString(expectedValues));
+        opts.put(FALSE_POSITIVE_RATE, Double.toString(falsePositiveRate));
+
+        return opts;
+    }
+
+    /**
+     * ORs the summaries emitted by this iterator for each tablet, e.g. from a BatchScanner, into one
+     *
+     * @param results Key/Value pairs emitted by this iterator
+     * @return Union of the summaries, or null if there were no results
+     * @throws IOException If a value is not properly encoded
+     */
+    public static ValueSetSummary merge(Iterable<Map.Entry<Key, Value>> results)
+            throws IOException
+    {
+        List<ValueSetSummary> summaries = new ArrayList<>();
+        for (Map.Entry<Key, Value> entry : results) {
+            summaries.add(ValueSetSummary.fromBytes(entry.getValue().get()));
+        }
+        return ValueSetSummary.union(summaries);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("BloomFilterBuilderIterator{columnFamily=%s,columnQualifier=%s,maxValues=%d,expectedValues=%d,falsePositiveRate=%s}", columnFamily, columnQualifier, maxValues, expectedValues, falsePositiveRate);
+    }
+}
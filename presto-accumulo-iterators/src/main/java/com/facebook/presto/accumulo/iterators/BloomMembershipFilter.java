@@ -0,0 +1,147 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.user.RowFilter;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accepts rows where the value of a single column family/qualifier may be a member of a {@link ValueSetSummary},
+ * typically the join keys of the build side of a join collected by the {@link BloomFilterBuilderIterator}.
+ * Rows without the column are rejected, as they can never match an equi-join.
+ */
+public class BloomMembershipFilter
+        extends RowFilter
+        implements OptionDescriber
+{
+    protected static final String CF = "family";
+    protected static final String CQ = "qualifier";
+    protected static final String SUMMARY = "summary";
+
+    private Text columnFamily;
+    private Text columnQualifier;
+    private byte[] encodedSummary;
+    private ValueSetSummary summary;
+
+    @Override
+    public boolean acceptRow(SortedKeyValueIterator<Key, Value> rowIterator)
+            throws IOException
+    {
+        while (rowIterator.hasTop()) {
+            Key k = rowIterator.getTopKey();
+            if (k.compareColumnQualifier(columnQualifier) == 0 && k.compareColumnFamily(columnFamily) == 0) {
+                return summary.mightContain(new ArrayByteSequence(rowIterator.getTopValue().get()));
+            }
+            rowIterator.next();
+        }
+
+        return false;
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        columnFamily = new Text(options.get(CF));
+        columnQualifier = new Text(options.get(CQ));
+
+        try {
+            encodedSummary = Hex.decodeHex(options.get(SUMMARY).toCharArray());
+        }
+        catch (DecoderException e) {
+            // should not occur, as validateOptions tries this same thing
+            throw new IllegalArgumentException("Error decoding hex value in option", e);
+        }
+        summary = ValueSetSummary.fromBytes(encodedSummary);
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        BloomMembershipFilter copy = new BloomMembershipFilter();
+        copy.columnFamily = new Text(this.columnFamily);
+        copy.columnQualifier = new Text(this.columnQualifier);
+        copy.encodedSummary = this.encodedSummary;
+        copy.summary = this.summary;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("bloommembershipfilter", "Filter accepts or rejects each row based on whether or not the value of a single column family/qualifier may be in a set of values",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(CF, "column family to match on, required").put(CQ, "column qualifier to match on, required").put(SUMMARY, "Hex-encoded ValueSetSummary of the accepted values, required").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(CF, options);
+        checkNotNull(CQ, options);
+        checkNotNull(SUMMARY, options);
+
+        try {
+            ValueSetSummary.fromBytes(Hex.decodeHex(options.get(SUMMARY).toCharArray()));
+        }
+        catch (DecoderException | IOException e) {
+            throw new IllegalArgumentException("Option " + SUMMARY + " is not a hex-encoded summary", e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier, ValueSetSummary summary)
+            throws IOException
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(CF, family);
+        opts.put(CQ, qualifier);
+        opts.put(SUMMARY, Hex.encodeHexString(summary.toBytes()));
+
+        return opts;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("BloomMembershipFilter{columnFamily=%s,columnQualifier=%s,summary=%s}", columnFamily, columnQualifier, summary);
+    }
+}
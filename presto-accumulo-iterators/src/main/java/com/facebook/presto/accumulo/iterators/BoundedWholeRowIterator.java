@@ -0,0 +1,200 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.accumulo.core.iterators.user.WholeRowIterator;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A WholeRowIterator that bounds the memory of each row with a {@link WideRowGuard}. Rows within the limits are
+ * encoded as the WholeRowIterator would and are decoded with {@link WholeRowIterator#decodeRow}, but each is keyed by
+ * its last cell rather than by the row alone, the same as a chunk, so a scan can resume after it.
+ * <p>
+ * Under the SKIP policy, a row over the limits is dropped without reading the rest of it. Under the CHUNK (or STREAM)
+ * policy, a row over the limits is emitted as several encoded chunks of consecutive cells, each keyed by its last cell
+ * so a scan can resume after any chunk, and the client merges consecutive chunks of the same row.
+ */
+public class BoundedWholeRowIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    private static final Logger LOG = Logger.getLogger(BoundedWholeRowIterator.class);
+
+    private WideRowGuard guard;
+    private long wideRows = 0;
+
+    private Range range;
+    private Collection<ByteSequence> columnFamilies;
+    private boolean inclusive;
+
+    private final List<Key> keys = new ArrayList<>();
+    private final List<Value> values = new ArrayList<>();
+    private final Text row = new Text();
+    private final Text currentRow = new Text();
+
+    private Key topKey = null;
+    private Value topValue = null;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+        this.guard = WideRowGuard.fromOptions(options);
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        // An exclusive start key is the last cell of a row or chunk that was already emitted, so resume right after it
+        this.range = range;
+        this.columnFamilies = columnFamilies;
+        this.inclusive = inclusive;
+        super.seek(range, columnFamilies, inclusive);
+        findTop();
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        findTop();
+    }
+
+    @Override
+    public boolean hasTop()
+    {
+        return topKey != null;
+    }
+
+    @Override
+    public Key getTopKey()
+    {
+        return topKey;
+    }
+
+    @Override
+    public Value getTopValue()
+    {
+        return topValue;
+    }
+
+    private void findTop()
+            throws IOException
+    {
+        topKey = null;
+        topValue = null;
+
+        while (getSource().hasTop() && topKey == null) {
+            keys.clear();
+            values.clear();
+            getSource().getTopKey().getRow(row);
+
+            long bytes = 0;
+            boolean skipped = false;
+            while (getSource().hasTop() && getSource().getTopKey().getRow(currentRow).equals(row)) {
+                if (guard.isFull(keys.size(), bytes)) {
+                    if (guard.getPolicy() == WideRowGuard.Policy.SKIP) {
+                        ++wideRows;
+                        LOG.warn(String.format("Skipped row %s over the limits of %s, %d wide rows so far", row, guard, wideRows));
+                        skipRow();
+                        skipped = true;
+                    }
+                    break;
+                }
+
+                Key key = new Key(getSource().getTopKey());
+                Value value = new Value(getSource().getTopValue());
+                keys.add(key);
+                values.add(value);
+                bytes += key.getSize() + value.getSize();
+                getSource().next();
+            }
+
+            if (!skipped && !keys.isEmpty()) {
+                topKey = new Key(keys.get(keys.size() - 1));
+                topValue = WholeRowIterator.encodeRow(keys, values);
+            }
+        }
+    }
+
+    private void skipRow()
+            throws IOException
+    {
+        Key followingRow = new Key(row).followingKey(PartialKey.ROW);
+        if (range.afterEndKey(followingRow)) {
+            // Seek to an empty range to exhaust the source
+            getSource().seek(new Range(range.getEndKey(), true, range.getEndKey(), false), columnFamilies, inclusive);
+        }
+        else {
+            getSource().seek(new Range(followingRow, true, range.getEndKey(), range.isEndKeyInclusive()), columnFamilies, inclusive);
+        }
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        BoundedWholeRowIterator copy = new BoundedWholeRowIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.guard = guard;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("boundedwholerowiterator", "Encodes each row as a single Key/Value pair, skipping or chunking the rows over a limit of cells or bytes",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(WideRowGuard.MAX_ROW_CELLS, "Maximum number of cells of a row").put(WideRowGuard.MAX_ROW_BYTES, "Maximum number of Key and Value bytes of a row").put(WideRowGuard.POLICY, "<STREAM|SKIP|CHUNK> what to do with rows over either limit, required").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        WideRowGuard.validateOptions(options);
+        if (!options.containsKey(WideRowGuard.MAX_ROW_CELLS) && !options.containsKey(WideRowGuard.MAX_ROW_BYTES)) {
+            throw new IllegalArgumentException("Option " + WideRowGuard.MAX_ROW_CELLS + " or " + WideRowGuard.MAX_ROW_BYTES + " is required");
+        }
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("BoundedWholeRowIterator{guard=%s}", guard);
+    }
+}
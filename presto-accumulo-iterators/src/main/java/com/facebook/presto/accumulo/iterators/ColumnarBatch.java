@@ -0,0 +1,203 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Client-side view of a block emitted by the {@link ColumnarBatchIterator}.
+ * Decoding only indexes the offsets of each row ID and value; no bytes are copied until they are requested,
+ * and numeric columns can be decoded straight into primitive arrays.
+ */
+public final class ColumnarBatch
+{
+    private final byte[] bytes;
+    private final int numRows;
+    private final int numColumns;
+    private final int[] rowOffsets;
+    private final int[] rowLengths;
+
+    // Indexed by column then row, a length of -1 means the value is null
+    private final int[][] offsets;
+    private final int[][] lengths;
+
+    private ColumnarBatch(byte[] bytes, int numRows, int numColumns, int[] rowOffsets, int[] rowLengths, int[][] offsets, int[][] lengths)
+    {
+        this.bytes = bytes;
+        this.numRows = numRows;
+        this.numColumns = numColumns;
+        this.rowOffsets = rowOffsets;
+        this.rowLengths = rowLengths;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Decodes a Value emitted by the {@link ColumnarBatchIterator}
+     *
+     * @param value Value to decode
+     * @return Decoded block
+     * @throws IOException If the value is not properly encoded
+     */
+    public static ColumnarBatch decode(Value value)
+            throws IOException
+    {
+        byte[] bytes = value.get();
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+
+        int numRows = WritableUtils.readVInt(in);
+        int numColumns = WritableUtils.readVInt(in);
+
+        int[] rowOffsets = new int[numRows];
+        int[] rowLengths = new int[numRows];
+        for (int row = 0; row < numRows; ++row) {
+            rowLengths[row] = WritableUtils.readVInt(in);
+            rowOffsets[row] = in.getPosition();
+            skip(in, rowLengths[row]);
+        }
+
+        int bitmapLength = (numRows + 7) / 8;
+        int[][] offsets = new int[numColumns][numRows];
+        int[][] lengths = new int[numColumns][numRows];
+        for (int column = 0; column < numColumns; ++column) {
+            int bitmapOffset = in.getPosition();
+            skip(in, bitmapLength);
+
+            for (int row = 0; row < numRows; ++row) {
+                boolean present = (bytes[bitmapOffset + (row >>> 3)] & (1 << (row & 7))) != 0;
+                lengths[column][row] = present ? WritableUtils.readVInt(in) : -1;
+            }
+
+            int offset = in.getPosition();
+            for (int row = 0; row < numRows; ++row) {
+                if (lengths[column][row] >= 0) {
+                    offsets[column][row] = offset;
+                    offset += lengths[column][row];
+                }
+            }
+            skip(in, offset - in.getPosition());
+        }
+
+        return new ColumnarBatch(bytes, numRows, numColumns, rowOffsets, rowLengths, offsets, lengths);
+    }
+
+    private static void skip(DataInputBuffer in, int length)
+            throws IOException
+    {
+        if (length < 0 || in.skipBytes(length) != length) {
+            throw new IOException("Block is truncated or corrupt");
+        }
+    }
+
+    public int getRowCount()
+    {
+        return numRows;
+    }
+
+    public int getColumnCount()
+    {
+        return numColumns;
+    }
+
+    public Text getRow(int row)
+    {
+        Text text = new Text();
+        text.set(bytes, rowOffsets[row], rowLengths[row]);
+        return text;
+    }
+
+    public boolean isNull(int column, int row)
+    {
+        return lengths[column][row] < 0;
+    }
+
+    /**
+     * Gets a copy of the raw bytes of a value
+     *
+     * @param column Column ID
+     * @param row Row index within the block
+     * @return Value bytes, or null if the row does not have the column
+     */
+    public byte[] getBytes(int column, int row)
+    {
+        if (isNull(column, row)) {
+            return null;
+        }
+        return Arrays.copyOfRange(bytes, offsets[column][row], offsets[column][row] + lengths[column][row]);
+    }
+
+    public String getString(int column, int row)
+    {
+        if (isNull(column, row)) {
+            return null;
+        }
+        return new String(bytes, offsets[column][row], lengths[column][row], StandardCharsets.UTF_8);
+    }
+
+    public long getLong(int column, int row)
+    {
+        return Lexicoders.decodeLong(bytes, offsets[column][row], lengths[column][row]);
+    }
+
+    public double getDouble(int column, int row)
+    {
+        return Lexicoders.decodeDouble(bytes, offsets[column][row], lengths[column][row]);
+    }
+
+    /**
+     * Decodes a column of LongLexicoder-encoded values into the given array, setting null values to zero.
+     * Use {@link ColumnarBatch#isNull} to distinguish nulls.
+     *
+     * @param column Column ID
+     * @param values Array to fill, at least {@link ColumnarBatch#getRowCount} in length
+     * @return The given array
+     */
+    public long[] getLongs(int column, long[] values)
+    {
+        int[] columnOffsets = offsets[column];
+        int[] columnLengths = lengths[column];
+        for (int row = 0; row < numRows; ++row) {
+            values[row] = columnLengths[row] < 0 ? 0 : Lexicoders.decodeLong(bytes, columnOffsets[row], columnLengths[row]);
+        }
+        return values;
+    }
+
+    /**
+     * Decodes a column of DoubleLexicoder-encoded values into the given array, setting null values to zero.
+     * Use {@link ColumnarBatch#isNull} to distinguish nulls.
+     *
+     * @param column Column ID
+     * @param values Array to fill, at least {@link ColumnarBatch#getRowCount} in length
+     * @return The given array
+     */
+    public double[] getDoubles(int column, double[] values)
+    {
+        int[] columnOffsets = offsets[column];
+        int[] columnLengths = lengths[column];
+        for (int row = 0; row < numRows; ++row) {
+            values[row] = columnLengths[row] < 0 ? 0 : Lexicoders.decodeDouble(bytes, columnOffsets[row], columnLengths[row]);
+        }
+        return values;
+    }
+}
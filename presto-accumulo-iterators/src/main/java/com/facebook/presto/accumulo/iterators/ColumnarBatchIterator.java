@@ -0,0 +1,195 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Buffers up to a maximum number of rows or bytes of projected columns and emits them as a single column-major block,
+ * removing the per-row and per-cell decode overhead on the client. Each emitted Key holds the last row ID of the block.
+ * <p>
+ * The block is encoded as:
+ * <pre>
+ * vint numRows, vint numColumns
+ * numRows x (vint length, row ID bytes)
+ * numColumns x (non-null bitmap of ceil(numRows / 8) bytes, vint length of each non-null value, concatenated non-null values)
+ * </pre>
+ * Use {@link ColumnarBatch#decode} on the client to access the rows, which can fill primitive arrays directly.
+ */
+public class ColumnarBatchIterator
+        extends ProjectionIterator
+{
+    protected static final String MAX_ROWS = "maxRows";
+    protected static final String MAX_BYTES = "maxBytes";
+
+    private static final int DEFAULT_MAX_ROWS = 1000;
+    private static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    private int maxRows = DEFAULT_MAX_ROWS;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private final List<byte[]> rows = new ArrayList<>();
+    private final List<byte[][]> values = new ArrayList<>();
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        maxRows = options.containsKey(MAX_ROWS) ? Integer.parseInt(options.get(MAX_ROWS)) : DEFAULT_MAX_ROWS;
+        maxBytes = options.containsKey(MAX_BYTES) ? Long.parseLong(options.get(MAX_BYTES)) : DEFAULT_MAX_BYTES;
+    }
+
+    @Override
+    protected void findTop()
+            throws IOException
+    {
+        setTop(null, null);
+        rows.clear();
+        values.clear();
+
+        Text currentRow = new Text();
+        byte[][] rowValues = new byte[getNumColumns()][];
+        long numBytes = 0;
+        while (rows.size() < maxRows && numBytes < maxBytes && getSource().hasTop()) {
+            if (readRow(currentRow, rowValues)) {
+                rows.add(currentRow.copyBytes());
+                values.add(rowValues);
+                numBytes += currentRow.getLength();
+                for (byte[] value : rowValues) {
+                    numBytes += value == null ? 0 : value.length;
+                }
+                rowValues = new byte[getNumColumns()][];
+            }
+        }
+
+        if (!rows.isEmpty()) {
+            setTop(new Key(new Text(rows.get(rows.size() - 1))), encodeBlock());
+        }
+    }
+
+    private Value encodeBlock()
+            throws IOException
+    {
+        buffer.reset();
+        WritableUtils.writeVInt(out, rows.size());
+        WritableUtils.writeVInt(out, getNumColumns());
+
+        for (byte[] row : rows) {
+            WritableUtils.writeVInt(out, row.length);
+            out.write(row);
+        }
+
+        byte[] bitmap = new byte[(rows.size() + 7) / 8];
+        for (int column = 0; column < getNumColumns(); ++column) {
+            for (int i = 0; i < bitmap.length; ++i) {
+                bitmap[i] = 0;
+            }
+
+            for (int row = 0; row < rows.size(); ++row) {
+                if (values.get(row)[column] != null) {
+                    bitmap[row >>> 3] |= 1 << (row & 7);
+                }
+            }
+            out.write(bitmap);
+
+            for (byte[][] rowValues : values) {
+                if (rowValues[column] != null) {
+                    WritableUtils.writeVInt(out, rowValues[column].length);
+                }
+            }
+
+            for (byte[][] rowValues : values) {
+                if (rowValues[column] != null) {
+                    out.write(rowValues[column]);
+                }
+            }
+        }
+
+        out.flush();
+        return new Value(buffer.toByteArray());
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        ColumnarBatchIterator copy = new ColumnarBatchIterator();
+        copyTo(copy, env);
+        copy.maxRows = maxRows;
+        copy.maxBytes = maxBytes;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("columnarbatchiterator", "Emits blocks of rows encoded column-major, holding the values of the projected columns keyed by their position in the column dictionary",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(COLUMNS, "Comma-delimited dictionary of <col fam>:<col qual> to project, in ID order (escape non-alphanum chars using %<hex>), required").put(MAX_ROWS, "Maximum number of rows in a block, default " + DEFAULT_MAX_ROWS).put(MAX_BYTES, "Maximum number of bytes in a block before it is emitted, default " + DEFAULT_MAX_BYTES).build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        super.validateOptions(options);
+
+        try {
+            if (options.containsKey(MAX_ROWS) && Integer.parseInt(options.get(MAX_ROWS)) <= 0) {
+                throw new IllegalArgumentException("Option " + MAX_ROWS + " must be positive");
+            }
+
+            if (options.containsKey(MAX_BYTES) && Long.parseLong(options.get(MAX_BYTES)) <= 0) {
+                throw new IllegalArgumentException("Option " + MAX_BYTES + " must be positive");
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad block size option", e);
+        }
+
+        return true;
+    }
+
+    /**
+     * A convenience method for setting the maximum size of each block
+     *
+     * @param is IteratorSetting object to configure
+     * @param maxRows Maximum number of rows in a block
+     * @param maxBytes Maximum number of bytes in a block before it is emitted
+     */
+    public static void setBlockSize(IteratorSetting is, int maxRows, long maxBytes)
+    {
+        is.addOption(MAX_ROWS, Integer.toString(maxRows));
+        is.addOption(MAX_BYTES, Long.toString(maxBytes));
+    }
+}
@@ -0,0 +1,363 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.UnsignedBytes;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Pushes down SELECT DISTINCT of a single column, emitting blocks of distinct encoded values in sorted order.
+ * <p>
+ * Against a data table, the values of the column family/qualifier are deduplicated in a sorted buffer that is emitted
+ * whenever it reaches the configured size, keyed by the last Key read, and again at the end of the range.
+ * Against an index table, where the row ID is the indexed value, the iterator instead seeks from each index row
+ * holding the column family to the next, never reading the qualifiers of a value's data rows.
+ * Values may repeat across blocks and tablets; use {@link DistinctValueIterator#merge} to deduplicate them on the client.
+ * For a sharded index, set the length of the shard prefix of the index rows, which is stripped from each value before
+ * it is buffered, so each value is emitted once per block rather than once per shard.
+ */
+public class DistinctValueIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    protected static final String CF = "family";
+    protected static final String CQ = "qualifier";
+    protected static final String INDEX = "index";
+    protected static final String BUFFER_SIZE = "bufferSize";
+    protected static final String SHARD_PREFIX_LENGTH = "shardPrefixLength";
+
+    private static final int DEFAULT_BUFFER_SIZE = 10000;
+
+    private Text columnFamily;
+    private Text columnQualifier;
+    private boolean index;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private int shardPrefixLength = 0;
+
+    private Range seekRange;
+    private Collection<ByteSequence> seekColumnFamilies;
+    private boolean seekInclusive;
+    private boolean endOfRange;
+
+    private final SortedSet<ByteSequence> distinctValues = new TreeSet<>();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+
+    private Key topKey = null;
+    private Value topValue = null;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+        columnFamily = new Text(options.get(CF));
+        columnQualifier = options.containsKey(CQ) ? new Text(options.get(CQ)) : null;
+        index = Boolean.parseBoolean(options.get(INDEX));
+        bufferSize = options.containsKey(BUFFER_SIZE) ? Integer.parseInt(options.get(BUFFER_SIZE)) : DEFAULT_BUFFER_SIZE;
+        shardPrefixLength = options.containsKey(SHARD_PREFIX_LENGTH) ? Integer.parseInt(options.get(SHARD_PREFIX_LENGTH)) : 0;
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        topKey = null;
+        topValue = null;
+
+        seekRange = range;
+        seekColumnFamilies = columnFamilies;
+        seekInclusive = inclusive;
+        endOfRange = false;
+
+        // Read only the configured column family unless the client asked for something specific
+        if (columnFamilies.isEmpty() && !inclusive) {
+            seekColumnFamilies = ImmutableSet.<ByteSequence>of(new ArrayByteSequence(columnFamily.copyBytes()));
+            seekInclusive = true;
+        }
+
+        if (index && range.getStartKey() != null && !range.isStartKeyInclusive()) {
+            // Index blocks are keyed by row, so a re-established scan session resumes at the following row
+            Key followingRow = range.getStartKey().followingKey(PartialKey.ROW);
+            if (range.afterEndKey(followingRow)) {
+                return;
+            }
+            seekRange = new Range(followingRow, true, range.getEndKey(), range.isEndKeyInclusive());
+        }
+
+        super.seek(seekRange, seekColumnFamilies, seekInclusive);
+        findTop();
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        findTop();
+    }
+
+    private void findTop()
+            throws IOException
+    {
+        topKey = null;
+        topValue = null;
+        distinctValues.clear();
+
+        Key lastKey = index ? findIndexValues() : findDataValues();
+        if (!distinctValues.isEmpty()) {
+            topKey = lastKey;
+            topValue = encodeValues();
+        }
+    }
+
+    private Key findDataValues()
+            throws IOException
+    {
+        Key lastKey = null;
+        while (distinctValues.size() < bufferSize && getSource().hasTop()) {
+            Key key = getSource().getTopKey();
+            lastKey = new Key(key);
+            if (!key.isDeleted() && key.compareColumnFamily(columnFamily) == 0 && key.compareColumnQualifier(columnQualifier) == 0) {
+                byte[] value = getSource().getTopValue().get();
+                distinctValues.add(new ArrayByteSequence(Arrays.copyOf(value, value.length)));
+            }
+            getSource().next();
+        }
+        return lastKey;
+    }
+
+    private Key findIndexValues()
+            throws IOException
+    {
+        Text row = null;
+        while (!endOfRange && distinctValues.size() < bufferSize && getSource().hasTop()) {
+            Key key = getSource().getTopKey();
+            if (key.isDeleted() || key.compareColumnFamily(columnFamily) != 0) {
+                getSource().next();
+                continue;
+            }
+
+            row = key.getRow();
+            if (row.getLength() >= shardPrefixLength) {
+                // Strip the shard prefix, if any, as each value appears once in every shard
+                distinctValues.add(new ArrayByteSequence(Arrays.copyOfRange(row.getBytes(), shardPrefixLength, row.getLength())));
+            }
+
+            // Skip all remaining entries of this value
+            Key followingRow = key.followingKey(PartialKey.ROW);
+            if (seekRange.afterEndKey(followingRow)) {
+                endOfRange = true;
+            }
+            else {
+                super.seek(new Range(followingRow, true, seekRange.getEndKey(), seekRange.isEndKeyInclusive()), seekColumnFamilies, seekInclusive);
+            }
+        }
+        return row == null ? null : new Key(row);
+    }
+
+    private Value encodeValues()
+            throws IOException
+    {
+        buffer.reset();
+        WritableUtils.writeVInt(out, distinctValues.size());
+        for (ByteSequence value : distinctValues) {
+            WritableUtils.writeVInt(out, value.length());
+            out.write(value.getBackingArray(), value.offset(), value.length());
+        }
+        out.flush();
+        return new Value(buffer.toByteArray());
+    }
+
+    @Override
+    public boolean hasTop()
+    {
+        return topKey != null;
+    }
+
+    @Override
+    public Key getTopKey()
+    {
+        return topKey;
+    }
+
+    @Override
+    public Value getTopValue()
+    {
+        return topValue;
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        DistinctValueIterator copy = new DistinctValueIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.columnFamily = new Text(this.columnFamily);
+        copy.columnQualifier = this.columnQualifier == null ? null : new Text(this.columnQualifier);
+        copy.index = this.index;
+        copy.bufferSize = this.bufferSize;
+        copy.shardPrefixLength = this.shardPrefixLength;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("distinctvalueiterator", "Emits sorted blocks of the distinct values of a single column family/qualifier, or of the rows of an index table",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(CF, "column family to match on, or the index column family when scanning an index table, required").put(CQ, "column qualifier to match on, required unless scanning an index table").put(INDEX, "True if scanning an index table, default false").put(BUFFER_SIZE, "Maximum number of distinct values to buffer before emitting a block, default " + DEFAULT_BUFFER_SIZE).put(SHARD_PREFIX_LENGTH, "Length of the shard prefix of the rows of a sharded index table, default 0").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(CF, options);
+        if (!Boolean.parseBoolean(options.get(INDEX))) {
+            checkNotNull(CQ, options);
+        }
+
+        try {
+            if (options.containsKey(BUFFER_SIZE) && Integer.parseInt(options.get(BUFFER_SIZE)) <= 0) {
+                throw new IllegalArgumentException("Option " + BUFFER_SIZE + " must be positive");
+            }
+
+            if (options.containsKey(SHARD_PREFIX_LENGTH) && Integer.parseInt(options.get(SHARD_PREFIX_LENGTH)) < 0) {
+                throw new IllegalArgumentException("Option " + SHARD_PREFIX_LENGTH + " must not be negative");
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad distinct value option", e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(CF, family);
+        opts.put(CQ, qualifier);
+
+        return opts;
+    }
+
+    public static Map<String, String> getIndexProperties(String indexFamily)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(CF, indexFamily);
+        opts.put(INDEX, Boolean.toString(true));
+
+        return opts;
+    }
+
+    /**
+     * Gets the options for scanning a sharded index table, whose rows are the indexed values prefixed by a shard ID
+     *
+     * @param indexFamily Index column family
+     * @param shardPrefixLength Length in bytes of the shard prefix of each row
+     * @return Iterator options
+     */
+    public static Map<String, String> getIndexProperties(String indexFamily, int shardPrefixLength)
+    {
+        Map<String, String> opts = getIndexProperties(indexFamily);
+        opts.put(SHARD_PREFIX_LENGTH, Integer.toString(shardPrefixLength));
+        return opts;
+    }
+
+    /**
+     * Decodes a block of distinct values emitted by this iterator
+     *
+     * @param value Value to decode
+     * @return Distinct values, in sorted order
+     * @throws IOException If the value is not properly encoded
+     */
+    public static List<byte[]> decodeValues(Value value)
+            throws IOException
+    {
+        byte[] bytes = value.get();
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+
+        int numValues = WritableUtils.readVInt(in);
+        List<byte[]> values = new ArrayList<>(numValues);
+        for (int i = 0; i < numValues; ++i) {
+            byte[] distinctValue = new byte[WritableUtils.readVInt(in)];
+            in.readFully(distinctValue);
+            values.add(distinctValue);
+        }
+        return values;
+    }
+
+    /**
+     * Merges the blocks emitted by this iterator across all tablets, e.g. from a BatchScanner
+     *
+     * @param results Key/Value pairs emitted by this iterator
+     * @return Distinct values, in sorted order
+     * @throws IOException If a value is not properly encoded
+     */
+    public static SortedSet<byte[]> merge(Iterable<Map.Entry<Key, Value>> results)
+            throws IOException
+    {
+        SortedSet<byte[]> values = new TreeSet<>(UnsignedBytes.lexicographicalComparator());
+        for (Map.Entry<Key, Value> entry : results) {
+            values.addAll(decodeValues(entry.getValue()));
+        }
+        return values;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("DistinctValueIterator{columnFamily=%s,columnQualifier=%s,index=%s,bufferSize=%d,shardPrefixLength=%d}", columnFamily, columnQualifier, index, bufferSize, shardPrefixLength);
+    }
+}
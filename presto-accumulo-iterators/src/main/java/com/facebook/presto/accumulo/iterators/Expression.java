@@ -0,0 +1,227 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A small typed expression tree over lexicoded column values, evaluated on the tablet server by the
+ * {@link ExpressionFilter}. Leaves are column references or literals of type BIGINT (also used for INTEGER, DATE,
+ * and TIMESTAMP columns, which share the LongLexicoder) or DOUBLE, and calls are arithmetic or comparison operators.
+ * Arithmetic between a BIGINT and a DOUBLE is done in DOUBLE, and the root of a filter must be a comparison.
+ */
+public final class Expression
+{
+    public enum Type
+    {
+        BIGINT, DOUBLE, BOOLEAN
+    }
+
+    public enum Operator
+    {
+        ADD(false), SUBTRACT(false), MULTIPLY(false), DIVIDE(false),
+        EQUAL(true), NOT_EQUAL(true), LESS_THAN(true), LESS_THAN_OR_EQUAL(true), GREATER_THAN(true), GREATER_THAN_OR_EQUAL(true);
+
+        private final boolean comparison;
+
+        Operator(boolean comparison)
+        {
+            this.comparison = comparison;
+        }
+
+        public boolean isComparison()
+        {
+            return comparison;
+        }
+    }
+
+    private enum Kind
+    {
+        COLUMN, LITERAL, CALL
+    }
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Kind kind;
+    private final Type type;
+    private final String family;
+    private final String qualifier;
+    private final Number value;
+    private final Operator operator;
+    private final List<Expression> arguments;
+
+    private Expression(Kind kind, Type type, String family, String qualifier, Number value, Operator operator, List<Expression> arguments)
+    {
+        this.kind = kind;
+        this.type = type;
+        this.family = family;
+        this.qualifier = qualifier;
+        this.value = value;
+        this.operator = operator;
+        this.arguments = arguments;
+    }
+
+    public static Expression column(String family, String qualifier, Type type)
+    {
+        if (type == Type.BOOLEAN) {
+            throw new IllegalArgumentException("Column references must be of type BIGINT or DOUBLE");
+        }
+        return new Expression(Kind.COLUMN, type, family, qualifier, null, null, ImmutableList.<Expression>of());
+    }
+
+    public static Expression literal(long value)
+    {
+        return new Expression(Kind.LITERAL, Type.BIGINT, null, null, value, null, ImmutableList.<Expression>of());
+    }
+
+    public static Expression literal(double value)
+    {
+        return new Expression(Kind.LITERAL, Type.DOUBLE, null, null, value, null, ImmutableList.<Expression>of());
+    }
+
+    public static Expression call(Operator operator, Expression left, Expression right)
+    {
+        if (left.type == Type.BOOLEAN || right.type == Type.BOOLEAN) {
+            throw new IllegalArgumentException("Arguments of " + operator + " must be of type BIGINT or DOUBLE");
+        }
+
+        Type type;
+        if (operator.isComparison()) {
+            type = Type.BOOLEAN;
+        }
+        else {
+            type = left.type == Type.DOUBLE || right.type == Type.DOUBLE ? Type.DOUBLE : Type.BIGINT;
+        }
+        return new Expression(Kind.CALL, type, null, null, null, operator, ImmutableList.of(left, right));
+    }
+
+    public boolean isColumn()
+    {
+        return kind == Kind.COLUMN;
+    }
+
+    public boolean isLiteral()
+    {
+        return kind == Kind.LITERAL;
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public String getFamily()
+    {
+        return family;
+    }
+
+    public String getQualifier()
+    {
+        return qualifier;
+    }
+
+    public Number getValue()
+    {
+        return value;
+    }
+
+    public Operator getOperator()
+    {
+        return operator;
+    }
+
+    public List<Expression> getArguments()
+    {
+        return arguments;
+    }
+
+    public String toJson()
+    {
+        return toJsonNode().toString();
+    }
+
+    private JsonNode toJsonNode()
+    {
+        ObjectNode node = OBJECT_MAPPER.createObjectNode();
+        node.put("kind", kind.name());
+        node.put("type", type.name());
+        switch (kind) {
+            case COLUMN:
+                node.put("family", family);
+                node.put("qualifier", qualifier);
+                break;
+            case LITERAL:
+                node.put("value", value.toString());
+                break;
+            case CALL:
+                node.put("operator", operator.name());
+                ArrayNode array = node.putArray("arguments");
+                for (Expression argument : arguments) {
+                    array.add(argument.toJsonNode());
+                }
+                break;
+        }
+        return node;
+    }
+
+    public static Expression fromJson(String json)
+    {
+        try {
+            return fromJsonNode(OBJECT_MAPPER.readTree(json));
+        }
+        catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("Failed to deserialize expression from JSON value " + json, e);
+        }
+    }
+
+    private static Expression fromJsonNode(JsonNode node)
+    {
+        Type type = Type.valueOf(node.get("type").asText());
+        switch (Kind.valueOf(node.get("kind").asText())) {
+            case COLUMN:
+                return column(node.get("family").asText(), node.get("qualifier").asText(), type);
+            case LITERAL:
+                String value = node.get("value").asText();
+                return type == Type.DOUBLE ? literal(Double.parseDouble(value)) : literal(Long.parseLong(value));
+            default:
+                JsonNode arguments = node.get("arguments");
+                if (arguments.size() != 2) {
+                    throw new IllegalArgumentException("Expected two arguments but found " + arguments.size());
+                }
+                return call(Operator.valueOf(node.get("operator").asText()), fromJsonNode(arguments.get(0)), fromJsonNode(arguments.get(1)));
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        switch (kind) {
+            case COLUMN:
+                return family + ':' + qualifier;
+            case LITERAL:
+                return value.toString();
+            default:
+                return String.format("%s(%s, %s)", operator, arguments.get(0), arguments.get(1));
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.user.RowFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Accepts rows for which a boolean {@link Expression} over lexicoded BIGINT and DOUBLE columns is true, pushing down
+ * predicates such as <code>commitdate &lt; receiptdate</code> or <code>extendedprice * (1 - discount) &gt; X</code>.
+ * <p>
+ * At init, the expression tree is compiled into a flat program over two register files, one of longs and one of
+ * doubles. Literals are loaded into their registers once, each row decodes its referenced columns straight into their
+ * registers, and the program is then run front to back without recursion, an operand stack, or boxing.
+ * Rows missing a referenced column are rejected, as the predicate is NULL. Rows that divide a BIGINT by zero are
+ * accepted so the error is raised by Presto rather than hidden.
+ * It can be combined with the other row filters using the {@link AndFilter} and {@link OrFilter}.
+ */
+public class ExpressionFilter
+        extends RowFilter
+        implements OptionDescriber
+{
+    protected static final String EXPRESSION = "expression";
+
+    private static final int LONG_TO_DOUBLE = 0;
+    private static final int ADD_LONG = 1;
+    private static final int SUBTRACT_LONG = 2;
+    private static final int MULTIPLY_LONG = 3;
+    private static final int DIVIDE_LONG = 4;
+    private static final int ADD_DOUBLE = 5;
+    private static final int SUBTRACT_DOUBLE = 6;
+    private static final int MULTIPLY_DOUBLE = 7;
+    private static final int DIVIDE_DOUBLE = 8;
+    private static final int EQUAL_LONG = 9;
+    private static final int NOT_EQUAL_LONG = 10;
+    private static final int LESS_THAN_LONG = 11;
+    private static final int LESS_THAN_OR_EQUAL_LONG = 12;
+    private static final int GREATER_THAN_LONG = 13;
+    private static final int GREATER_THAN_OR_EQUAL_LONG = 14;
+    private static final int EQUAL_DOUBLE = 15;
+    private static final int NOT_EQUAL_DOUBLE = 16;
+    private static final int LESS_THAN_DOUBLE = 17;
+    private static final int LESS_THAN_OR_EQUAL_DOUBLE = 18;
+    private static final int GREATER_THAN_DOUBLE = 19;
+    private static final int GREATER_THAN_OR_EQUAL_DOUBLE = 20;
+
+    private String json;
+    private Expression expression;
+
+    // Column family -> column qualifier -> indexes of the referenced columns
+    private Map<ByteSequence, Map<ByteSequence, List<Integer>>> columnLookup;
+    private Expression.Type[] columnTypes;
+    private int[] columnRegisters;
+    private boolean[] found;
+
+    // The compiled program, one entry per instruction
+    private int[] opcodes;
+    private int[] destinations;
+    private int[] lefts;
+    private int[] rights;
+    private int result;
+
+    private long[] longs;
+    private double[] doubles;
+
+    @Override
+    public boolean acceptRow(SortedKeyValueIterator<Key, Value> rowIterator)
+            throws IOException
+    {
+        Arrays.fill(found, false);
+        int numFound = 0;
+        while (numFound < found.length && rowIterator.hasTop()) {
+            Key key = rowIterator.getTopKey();
+            Map<ByteSequence, List<Integer>> qualifiers = columnLookup.get(key.getColumnFamilyData());
+            List<Integer> columns = qualifiers == null ? null : qualifiers.get(key.getColumnQualifierData());
+            if (columns != null) {
+                byte[] value = rowIterator.getTopValue().get();
+                for (int column : columns) {
+                    // Keys are sorted newest version first, so keep only the first one we see
+                    if (!found[column]) {
+                        if (columnTypes[column] == Expression.Type.DOUBLE) {
+                            doubles[columnRegisters[column]] = Lexicoders.decodeDouble(value);
+                        }
+                        else {
+                            longs[columnRegisters[column]] = Lexicoders.decodeLong(value);
+                        }
+                        found[column] = true;
+                        ++numFound;
+                    }
+                }
+            }
+            rowIterator.next();
+        }
+
+        if (numFound < found.length) {
+            return false;
+        }
+
+        try {
+            return evaluate();
+        }
+        catch (ArithmeticException e) {
+            return true;
+        }
+    }
+
+    private boolean evaluate()
+    {
+        for (int i = 0; i < opcodes.length; ++i) {
+            int dest = destinations[i];
+            int left = lefts[i];
+            int right = rights[i];
+            switch (opcodes[i]) {
+                case LONG_TO_DOUBLE:
+                    doubles[dest] = longs[left];
+                    break;
+                case ADD_LONG:
+                    longs[dest] = longs[left] + longs[right];
+                    break;
+                case SUBTRACT_LONG:
+                    longs[dest] = longs[left] - longs[right];
+                    break;
+                case MULTIPLY_LONG:
+                    longs[dest] = longs[left] * longs[right];
+                    break;
+                case DIVIDE_LONG:
+                    longs[dest] = longs[left] / longs[right];
+                    break;
+                case ADD_DOUBLE:
+                    doubles[dest] = doubles[left] + doubles[right];
+                    break;
+                case SUBTRACT_DOUBLE:
+                    doubles[dest] = doubles[left] - doubles[right];
+                    break;
+                case MULTIPLY_DOUBLE:
+                    doubles[dest] = doubles[left] * doubles[right];
+                    break;
+                case DIVIDE_DOUBLE:
+                    doubles[dest] = doubles[left] / doubles[right];
+                    break;
+                case EQUAL_LONG:
+                    longs[dest] = longs[left] == longs[right] ? 1 : 0;
+                    break;
+                case NOT_EQUAL_LONG:
+                    longs[dest] = longs[left] != longs[right] ? 1 : 0;
+                    break;
+                case LESS_THAN_LONG:
+                    longs[dest] = longs[left] < longs[right] ? 1 : 0;
+                    break;
+                case LESS_THAN_OR_EQUAL_LONG:
+                    longs[dest] = longs[left] <= longs[right] ? 1 : 0;
+                    break;
+                case GREATER_THAN_LONG:
+                    longs[dest] = longs[left] > longs[right] ? 1 : 0;
+                    break;
+                case GREATER_THAN_OR_EQUAL_LONG:
+                    longs[dest] = longs[left] >= longs[right] ? 1 : 0;
+                    break;
+                case EQUAL_DOUBLE:
+                    longs[dest] = doubles[left] == doubles[right] ? 1 : 0;
+                    break;
+                case NOT_EQUAL_DOUBLE:
+                    longs[dest] = doubles[left] != doubles[right] ? 1 : 0;
+                    break;
+                case LESS_THAN_DOUBLE:
+                    longs[dest] = doubles[left] < doubles[right] ? 1 : 0;
+                    break;
+                case LESS_THAN_OR_EQUAL_DOUBLE:
+                    longs[dest] = doubles[left] <= doubles[right] ? 1 : 0;
+                    break;
+                case GREATER_THAN_DOUBLE:
+                    longs[dest] = doubles[left] > doubles[right] ? 1 : 0;
+                    break;
+                case GREATER_THAN_OR_EQUAL_DOUBLE:
+                    longs[dest] = doubles[left] >= doubles[right] ? 1 : 0;
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + opcodes[i]);
+            }
+        }
+        return longs[result] != 0;
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+        compile(options.get(EXPRESSION));
+    }
+
+    private void compile(String json)
+    {
+        this.json = json;
+        this.expression = Expression.fromJson(json);
+        if (expression.getType() != Expression.Type.BOOLEAN) {
+            throw new IllegalArgumentException("Expression must be a comparison: " + expression);
+        }
+
+        Compiler compiler = new Compiler();
+        result = compiler.compile(expression);
+
+        columnLookup = new HashMap<>();
+        columnTypes = new Expression.Type[compiler.columns.size()];
+        columnRegisters = new int[compiler.columns.size()];
+        for (int i = 0; i < compiler.columns.size(); ++i) {
+            Expression column = compiler.columns.get(i);
+            ByteSequence family = new ArrayByteSequence(column.getFamily().getBytes(UTF_8));
+            Map<ByteSequence, List<Integer>> qualifiers = columnLookup.get(family);
+            if (qualifiers == null) {
+                qualifiers = new HashMap<>();
+                columnLookup.put(family, qualifiers);
+            }
+
+            ByteSequence qualifier = new ArrayByteSequence(column.getQualifier().getBytes(UTF_8));
+            List<Integer> indexes = qualifiers.get(qualifier);
+            if (indexes == null) {
+                indexes = new ArrayList<>();
+                qualifiers.put(qualifier, indexes);
+            }
+            indexes.add(i);
+
+            columnTypes[i] = column.getType();
+            columnRegisters[i] = compiler.columnRegisters.get(i);
+        }
+        found = new boolean[compiler.columns.size()];
+
+        int numInstructions = compiler.opcodes.size();
+        opcodes = new int[numInstructions];
+        destinations = new int[numInstructions];
+        lefts = new int[numInstructions];
+        rights = new int[numInstructions];
+        for (int i = 0; i < numInstructions; ++i) {
+            opcodes[i] = compiler.opcodes.get(i);
+            destinations[i] = compiler.destinations.get(i);
+            lefts[i] = compiler.lefts.get(i);
+            rights[i] = compiler.rights.get(i);
+        }
+
+        longs = new long[compiler.numLongs];
+        doubles = new double[compiler.numDoubles];
+        for (Map.Entry<Integer, Long> literal : compiler.longLiterals.entrySet()) {
+            longs[literal.getKey()] = literal.getValue();
+        }
+
+        for (Map.Entry<Integer, Double> literal : compiler.doubleLiterals.entrySet()) {
+            doubles[literal.getKey()] = literal.getValue();
+        }
+    }
+
+    /**
+     * Assigns a register to each node of the expression tree and emits the instructions computing the calls in post-order
+     */
+    private static class Compiler
+    {
+        private final List<Expression> columns = new ArrayList<>();
+        private final List<Integer> columnRegisters = new ArrayList<>();
+        private final Map<Integer, Long> longLiterals = new HashMap<>();
+        private final Map<Integer, Double> doubleLiterals = new HashMap<>();
+        private final List<Integer> opcodes = new ArrayList<>();
+        private final List<Integer> destinations = new ArrayList<>();
+        private final List<Integer> lefts = new ArrayList<>();
+        private final List<Integer> rights = new ArrayList<>();
+        private int numLongs = 0;
+        private int numDoubles = 0;
+
+        public int compile(Expression expression)
+        {
+            if (expression.isColumn()) {
+                // Reuse the register of a column that was already referenced
+                for (int i = 0; i < columns.size(); ++i) {
+                    Expression column = columns.get(i);
+                    if (column.getFamily().equals(expression.getFamily()) && column.getQualifier().equals(expression.getQualifier()) && column.getType() == expression.getType()) {
+                        return columnRegisters.get(i);
+                    }
+                }
+
+                int register = allocate(expression.getType());
+                columns.add(expression);
+                columnRegisters.add(register);
+                return register;
+            }
+
+            if (expression.isLiteral()) {
+                int register = allocate(expression.getType());
+                if (expression.getType() == Expression.Type.DOUBLE) {
+                    doubleLiterals.put(register, expression.getValue().doubleValue());
+                }
+                else {
+                    longLiterals.put(register, expression.getValue().longValue());
+                }
+                return register;
+            }
+
+            Expression left = expression.getArguments().get(0);
+            Expression right = expression.getArguments().get(1);
+            int leftRegister = compile(left);
+            int rightRegister = compile(right);
+
+            boolean isDouble = left.getType() == Expression.Type.DOUBLE || right.getType() == Expression.Type.DOUBLE;
+            if (isDouble && left.getType() == Expression.Type.BIGINT) {
+                leftRegister = emit(LONG_TO_DOUBLE, allocate(Expression.Type.DOUBLE), leftRegister, 0);
+            }
+
+            if (isDouble && right.getType() == Expression.Type.BIGINT) {
+                rightRegister = emit(LONG_TO_DOUBLE, allocate(Expression.Type.DOUBLE), rightRegister, 0);
+            }
+
+            int opcode = getOpcode(expression.getOperator(), isDouble);
+            return emit(opcode, allocate(expression.getType()), leftRegister, rightRegister);
+        }
+
+        private int emit(int opcode, int destination, int left, int right)
+        {
+            opcodes.add(opcode);
+            destinations.add(destination);
+            lefts.add(left);
+            rights.add(right);
+            return destination;
+        }
+
+        // Booleans are stored in the long registers
+        private int allocate(Expression.Type type)
+        {
+            return type == Expression.Type.DOUBLE ? numDoubles++ : numLongs++;
+        }
+
+        private static int getOpcode(Expression.Operator operator, boolean isDouble)
+        {
+            switch (operator) {
+                case ADD:
+                    return isDouble ? ADD_DOUBLE : ADD_LONG;
+                case SUBTRACT:
+                    return isDouble ? SUBTRACT_DOUBLE : SUBTRACT_LONG;
+                case MULTIPLY:
+                    return isDouble ? MULTIPLY_DOUBLE : MULTIPLY_LONG;
+                case DIVIDE:
+                    return isDouble ? DIVIDE_DOUBLE : DIVIDE_LONG;
+                case EQUAL:
+                    return isDouble ? EQUAL_DOUBLE : EQUAL_LONG;
+                case NOT_EQUAL:
+                    return isDouble ? NOT_EQUAL_DOUBLE : NOT_EQUAL_LONG;
+                case LESS_THAN:
+                    return isDouble ? LESS_THAN_DOUBLE : LESS_THAN_LONG;
+                case LESS_THAN_OR_EQUAL:
+                    return isDouble ? LESS_THAN_OR_EQUAL_DOUBLE : LESS_THAN_OR_EQUAL_LONG;
+                case GREATER_THAN:
+                    return isDouble ? GREATER_THAN_DOUBLE : GREATER_THAN_LONG;
+                case GREATER_THAN_OR_EQUAL:
+                    return isDouble ? GREATER_THAN_OR_EQUAL_DOUBLE : GREATER_THAN_OR_EQUAL_LONG;
+                default:
+                    throw new IllegalArgumentException("Unknown operator " + operator);
+            }
+        }
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        // Registers hold per-row state, so the copy compiles its own program
+        ExpressionFilter copy = new ExpressionFilter();
+        copy.compile(json);
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("expressionfilter", "Filter accepts or rejects each row based on a comparison of arithmetic expressions over lexicoded BIGINT and DOUBLE columns",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(EXPRESSION, "JSON-encoded Expression, required").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        if (options.get(EXPRESSION) == null) {
+            throw new IllegalArgumentException("Option " + EXPRESSION + " is required");
+        }
+
+        if (Expression.fromJson(options.get(EXPRESSION)).getType() != Expression.Type.BOOLEAN) {
+            throw new IllegalArgumentException("Option " + EXPRESSION + " must be a comparison");
+        }
+
+        return true;
+    }
+
+    public static Map<String, String> getProperties(Expression expression)
+    {
+        Map<String, String> opts = new HashMap<>();
+        opts.put(EXPRESSION, expression.toJson());
+        return opts;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("ExpressionFilter{expression=%s}", expression);
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.Combiner;
+import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Layout of the heavy hitters of each index column in the metrics table, so the index or a full scan can be chosen
+ * for a value from its frequency without scanning the index:
+ * <ul>
+ * <li>row: <code>___HEAVY_HITTERS___</code></li>
+ * <li>family: <code>&lt;family&gt;_&lt;qualifier&gt;</code> of the indexed column</li>
+ * <li>qualifier: <code>sketch</code></li>
+ * <li>value: a serialized {@link SpaceSavingSketch} of the column's values</li>
+ * </ul>
+ * Each writer adds the sketch of the values it wrote, and the {@link SpaceSavingCombiner} attached by
+ * {@link HeavyHitters#attachCombiner} merges them at every scope.
+ */
+public final class HeavyHitters
+{
+    public static final String METRICS_TABLE_SUFFIX = "_metrics";
+    public static final String COMBINER_NAME = "heavyhitters";
+    public static final int COMBINER_PRIORITY = 15;
+
+    private static final byte[] ROW = "___HEAVY_HITTERS___".getBytes(UTF_8);
+    private static final byte[] QUALIFIER = "sketch".getBytes(UTF_8);
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    private HeavyHitters() {}
+
+    /**
+     * Gets the name of the metrics table for the given data table
+     *
+     * @param dataTable Accumulo data table name
+     * @return Metrics table name
+     */
+    public static String getMetricsTableName(String dataTable)
+    {
+        return dataTable + METRICS_TABLE_SUFFIX;
+    }
+
+    /**
+     * Gets the metrics table column family holding the sketch of the given index column
+     *
+     * @param family Data column family
+     * @param qualifier Data column qualifier
+     * @return Metrics table column family
+     */
+    public static byte[] getFamily(byte[] family, byte[] qualifier)
+    {
+        byte[] column = new byte[family.length + 1 + qualifier.length];
+        System.arraycopy(family, 0, column, 0, family.length);
+        column[family.length] = '_';
+        System.arraycopy(qualifier, 0, column, family.length + 1, qualifier.length);
+        return column;
+    }
+
+    /**
+     * Gets a Mutation adding the given sketch of an index column to the metrics table
+     *
+     * @param family Data column family
+     * @param qualifier Data column qualifier
+     * @param sketch Sketch of the values written
+     * @return Metrics table Mutation
+     * @throws IOException If the sketch fails to serialize
+     */
+    public static Mutation getMutation(byte[] family, byte[] qualifier, SpaceSavingSketch sketch)
+            throws IOException
+    {
+        Mutation mutation = new Mutation(ROW);
+        mutation.put(getFamily(family, qualifier), QUALIFIER, sketch.toBytes());
+        return mutation;
+    }
+
+    /**
+     * Gets the Key of the sketch of the given index column, for writers that create files for bulk import
+     *
+     * @param family Data column family
+     * @param qualifier Data column qualifier
+     * @param timestamp Timestamp of the Key
+     * @return Metrics table Key
+     */
+    public static Key getKey(byte[] family, byte[] qualifier, long timestamp)
+    {
+        return getKey(getFamily(family, qualifier), timestamp);
+    }
+
+    /**
+     * Gets the Key of the sketch of the index column with the given metrics table column family, which is the same
+     * <code>&lt;family&gt;_&lt;qualifier&gt;</code> column family as the index entries of the column
+     *
+     * @param column Metrics table column family
+     * @param timestamp Timestamp of the Key
+     * @return Metrics table Key
+     */
+    public static Key getKey(byte[] column, long timestamp)
+    {
+        return new Key(ROW, column, QUALIFIER, EMPTY_BYTES, timestamp, false, true);
+    }
+
+    /**
+     * Attaches the {@link SpaceSavingCombiner} for the given index columns to the metrics table at all scopes,
+     * replacing any previous one with different columns
+     *
+     * @param connector Accumulo connector
+     * @param metricsTable Metrics table name
+     * @param columns Index columns as family/qualifier pairs of the data table
+     * @throws AccumuloException If an Accumulo error occurs
+     * @throws AccumuloSecurityException If the user cannot alter the table
+     * @throws TableNotFoundException If the metrics table does not exist
+     */
+    public static void attachCombiner(Connector connector, String metricsTable, List<IteratorSetting.Column> columns)
+            throws AccumuloException, AccumuloSecurityException, TableNotFoundException
+    {
+        List<IteratorSetting.Column> sketchColumns = new ArrayList<>(columns.size());
+        for (IteratorSetting.Column column : columns) {
+            sketchColumns.add(new IteratorSetting.Column(new Text(getFamily(column.getColumnFamily().copyBytes(), column.getColumnQualifier().copyBytes())), new Text(QUALIFIER)));
+        }
+
+        IteratorSetting setting = new IteratorSetting(COMBINER_PRIORITY, COMBINER_NAME, SpaceSavingCombiner.class);
+        Combiner.setColumns(setting, sketchColumns);
+
+        if (connector.tableOperations().listIterators(metricsTable).containsKey(COMBINER_NAME)) {
+            IteratorSetting existing = connector.tableOperations().getIteratorSetting(metricsTable, COMBINER_NAME, IteratorScope.scan);
+            if (existing.getOptions().equals(setting.getOptions())) {
+                return;
+            }
+            connector.tableOperations().removeIterator(metricsTable, COMBINER_NAME, EnumSet.allOf(IteratorScope.class));
+        }
+        connector.tableOperations().attachIterator(metricsTable, setting);
+    }
+
+    /**
+     * Reads the sketch of the given index column, merging any versions the combiner has not merged yet
+     *
+     * @param connector Accumulo connector
+     * @param metricsTable Metrics table name
+     * @param family Data column family
+     * @param qualifier Data column qualifier
+     * @param auths Authorizations of the scan
+     * @return Sketch of the column, or null if there is none
+     * @throws TableNotFoundException If the metrics table does not exist
+     * @throws IOException If a value is not properly encoded
+     */
+    public static SpaceSavingSketch getSketch(Connector connector, String metricsTable, byte[] family, byte[] qualifier, Authorizations auths)
+            throws TableNotFoundException, IOException
+    {
+        Scanner scanner = connector.createScanner(metricsTable, auths);
+        try {
+            scanner.setRange(new Range(new Text(ROW)));
+            scanner.fetchColumn(new Text(getFamily(family, qualifier)), new Text(QUALIFIER));
+
+            List<SpaceSavingSketch> sketches = new ArrayList<>();
+            for (Map.Entry<Key, Value> entry : scanner) {
+                sketches.add(SpaceSavingSketch.fromBytes(entry.getValue().get()));
+            }
+            return SpaceSavingSketch.union(sketches);
+        }
+        finally {
+            scanner.close();
+        }
+    }
+
+    /**
+     * Estimates the number of rows with the given value of an index column, which is never less than the true number
+     *
+     * @param connector Accumulo connector
+     * @param metricsTable Metrics table name
+     * @param family Data column family
+     * @param qualifier Data column qualifier
+     * @param value Serialized value of the column
+     * @param auths Authorizations of the scan
+     * @return Estimated count, or -1 if the column has no sketch
+     * @throws TableNotFoundException If the metrics table does not exist
+     * @throws IOException If a value is not properly encoded
+     */
+    public static long getEstimate(Connector connector, String metricsTable, byte[] family, byte[] qualifier, byte[] value, Authorizations auths)
+            throws TableNotFoundException, IOException
+    {
+        SpaceSavingSketch sketch = getSketch(connector, metricsTable, family, qualifier, auths);
+        return sketch == null ? -1 : sketch.estimate(new ArrayByteSequence(value));
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+/**
+ * Decodes values written by the Accumulo LongLexicoder and DoubleLexicoder, which the LexicoderRowSerializer uses for
+ * BIGINT, INTEGER, DATE, TIMESTAMP and DOUBLE columns, directly from a region of a byte array.
+ * This avoids the array copy and boxing of the Lexicoder API when decoding many values in a tight loop.
+ * Also walks the elements of ARRAY and MAP values written by the ListLexicoder in place.
+ */
+public final class Lexicoders
+{
+    private Lexicoders() {}
+
+    public static long decodeLong(byte[] bytes)
+    {
+        return decodeLong(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decodes a long encoded by the LongLexicoder
+     *
+     * @param bytes Array holding the encoded value
+     * @param offset Offset of the encoded value
+     * @param length Length of the encoded value
+     * @return Decoded long
+     */
+    public static long decodeLong(byte[] bytes, int offset, int length)
+    {
+        return decodeUnsignedLong(bytes, offset, length) ^ Long.MIN_VALUE;
+    }
+
+    public static double decodeDouble(byte[] bytes)
+    {
+        return decodeDouble(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decodes a double encoded by the DoubleLexicoder
+     *
+     * @param bytes Array holding the encoded value
+     * @param offset Offset of the encoded value
+     * @param length Length of the encoded value
+     * @return Decoded double
+     */
+    public static double decodeDouble(byte[] bytes, int offset, int length)
+    {
+        long bits = decodeUnsignedLong(bytes, offset, length);
+        if (bits < 0) {
+            bits = bits ^ Long.MIN_VALUE;
+        }
+        else {
+            bits = ~bits;
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    // Mirrors ULongLexicoder: a length byte followed by the significant bytes, where lengths over 8 mean 0xff-prefixed
+    private static long decodeUnsignedLong(byte[] bytes, int offset, int length)
+    {
+        int prefix = bytes[offset];
+        if (prefix < 0 || prefix > 16) {
+            throw new IllegalArgumentException("Unexpected length " + (0xff & prefix));
+        }
+
+        long value = 0;
+        int shift = 0;
+        for (int i = offset + length - 1; i > offset; --i) {
+            value += (bytes[i] & 0xffL) << shift;
+            shift += 8;
+        }
+
+        if (prefix > 8) {
+            value |= -1L << ((16 - prefix) << 3);
+        }
+        return value;
+    }
+
+    /**
+     * Gets the end of an element of a value encoded by the ListLexicoder, which escapes each element so it contains no
+     * 0x00 bytes and joins them with 0x00 separators. Elements can be compared in their escaped form, as escaping
+     * preserves both equality and order.
+     *
+     * @param bytes Encoded list
+     * @param offset Offset of the start of the element
+     * @return Offset of the separator following the element, or the length of the array for the last element
+     */
+    public static int getElementEnd(byte[] bytes, int offset)
+    {
+        for (int i = offset; i < bytes.length; ++i) {
+            if (bytes[i] == 0) {
+                return i;
+            }
+        }
+        return bytes.length;
+    }
+}
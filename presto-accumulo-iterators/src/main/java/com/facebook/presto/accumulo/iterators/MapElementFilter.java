@@ -0,0 +1,202 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.facebook.presto.accumulo.iterators.SingleColumnValueFilter.CompareOp;
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.user.RowFilter;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.apache.accumulo.core.client.lexicoder.impl.ByteUtils.escape;
+
+/**
+ * Accepts rows where the element of a MAP column under the given key compares to the given value, i.e. m['k'] = v.
+ * Maps are encoded like a ListLexicoder list of alternating keys and values, which is walked in place comparing the
+ * escaped keys and value, so no elements are unescaped or copied. Rows without the column or the key are rejected.
+ */
+public class MapElementFilter
+        extends RowFilter
+        implements OptionDescriber
+{
+    protected static final String CF = "family";
+    protected static final String CQ = "qualifier";
+    protected static final String KEY = "key";
+    protected static final String COMPARE_OP = "compareOp";
+    protected static final String VALUE = "value";
+
+    private Text columnFamily;
+    private Text columnQualifier;
+    private byte[] escapedKey;
+    private CompareOp compareOp;
+    private byte[] escapedValue;
+
+    @Override
+    public boolean acceptRow(SortedKeyValueIterator<Key, Value> rowIterator)
+            throws IOException
+    {
+        while (rowIterator.hasTop()) {
+            Key k = rowIterator.getTopKey();
+            if (k.compareColumnQualifier(columnQualifier) == 0 && k.compareColumnFamily(columnFamily) == 0) {
+                return acceptMap(rowIterator.getTopValue().get());
+            }
+            rowIterator.next();
+        }
+
+        return false;
+    }
+
+    private boolean acceptMap(byte[] map)
+    {
+        int offset = 0;
+        while (offset < map.length) {
+            int keyEnd = Lexicoders.getElementEnd(map, offset);
+            int valueOffset = keyEnd + 1;
+            if (valueOffset > map.length) {
+                return false;
+            }
+
+            int valueEnd = Lexicoders.getElementEnd(map, valueOffset);
+            if (keyEnd - offset == escapedKey.length && WritableComparator.compareBytes(map, offset, keyEnd - offset, escapedKey, 0, escapedKey.length) == 0) {
+                int compare = WritableComparator.compareBytes(map, valueOffset, valueEnd - valueOffset, escapedValue, 0, escapedValue.length);
+                switch (compareOp) {
+                    case LESS:
+                        return compare < 0;
+                    case LESS_OR_EQUAL:
+                        return compare <= 0;
+                    case EQUAL:
+                        return compare == 0;
+                    case NOT_EQUAL:
+                        return compare != 0;
+                    case GREATER_OR_EQUAL:
+                        return compare >= 0;
+                    case GREATER:
+                        return compare > 0;
+                    default:
+                        throw new RuntimeException("Unknown Compare op " + compareOp.name());
+                }
+            }
+            offset = valueEnd + 1;
+        }
+        return false;
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        columnFamily = new Text(options.get(CF));
+        columnQualifier = new Text(options.get(CQ));
+        compareOp = CompareOp.valueOf(options.get(COMPARE_OP));
+
+        try {
+            escapedKey = escape(Hex.decodeHex(options.get(KEY).toCharArray()));
+            escapedValue = escape(Hex.decodeHex(options.get(VALUE).toCharArray()));
+        }
+        catch (DecoderException e) {
+            // should not occur, as validateOptions tries this same thing
+            throw new IllegalArgumentException("Error decoding hex value in option", e);
+        }
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        MapElementFilter copy = new MapElementFilter();
+        copy.columnFamily = new Text(this.columnFamily);
+        copy.columnQualifier = new Text(this.columnQualifier);
+        copy.escapedKey = this.escapedKey;
+        copy.compareOp = this.compareOp;
+        copy.escapedValue = this.escapedValue;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("mapelementfilter", "Filter accepts or rejects each row based on the lexicographic comparison of the element under a key of the map stored in a single column family/qualifier",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(CF, "column family to match on, required").put(CQ, "column qualifier to match on, required").put(KEY, "Hex-encoded bytes of the lexicoded map key, required").put(COMPARE_OP, "CompareOp enum type for lexicographic comparison, required").put(VALUE, "Hex-encoded bytes of the lexicoded value for comparison, required").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(CF, options);
+        checkNotNull(CQ, options);
+        checkNotNull(KEY, options);
+        checkNotNull(COMPARE_OP, options);
+        checkNotNull(VALUE, options);
+
+        try {
+            CompareOp.valueOf(options.get(COMPARE_OP));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown value of " + COMPARE_OP + ":" + options.get(COMPARE_OP), e);
+        }
+
+        for (String opt : new String[] {KEY, VALUE}) {
+            try {
+                Hex.decodeHex(options.get(opt).toCharArray());
+            }
+            catch (DecoderException e) {
+                throw new IllegalArgumentException("Option " + opt + " is not a hex-encoded value: " + options.get(opt), e);
+            }
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier, byte[] key, CompareOp op, byte[] value)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(CF, family);
+        opts.put(CQ, qualifier);
+        opts.put(KEY, Hex.encodeHexString(key));
+        opts.put(COMPARE_OP, op.toString());
+        opts.put(VALUE, Hex.encodeHexString(value));
+
+        return opts;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("MapElementFilter{columnFamily=%s,columnQualifier=%s,escapedKey=%s,compareOp=%s,escapedValue=%s}", columnFamily, columnQualifier, Hex.encodeHexString(escapedKey), compareOp, Hex.encodeHexString(escapedValue));
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import org.apache.hadoop.io.Text;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Layout of the n-gram inverted index used for substring (LIKE '%term%') search on VARCHAR columns.
+ * <p>
+ * The index is document-partitioned so the postings of every n-gram for a given data row live in the same
+ * index row and can be intersected server-side by the {@link NGramIntersectingIterator}:
+ * <ul>
+ * <li>row: shard ID, derived from a hash of the data row ID</li>
+ * <li>family: <code>&lt;family&gt;_&lt;qualifier&gt;\x00&lt;n-gram&gt;</code></li>
+ * <li>qualifier: data row ID</li>
+ * <li>value: empty</li>
+ * </ul>
+ * N-grams are taken over the raw bytes of the stored value, which is the UTF-8 encoding for VARCHAR columns
+ * with both the lexicoder and string serializers, so a substring match of the characters is always a substring
+ * match of the n-gram bytes.
+ */
+public final class NGramIndex
+{
+    public static final int DEFAULT_NGRAM_SIZE = 3;
+    public static final int DEFAULT_NUM_SHARDS = 10;
+    public static final String INDEX_TABLE_SUFFIX = "_ngram";
+
+    private static final byte SEPARATOR = 0x00;
+
+    private NGramIndex() {}
+
+    /**
+     * Gets the name of the n-gram index table for the given data table
+     *
+     * @param dataTable Accumulo data table name
+     * @return N-gram index table name
+     */
+    public static String getIndexTableName(String dataTable)
+    {
+        return dataTable + INDEX_TABLE_SUFFIX;
+    }
+
+    /**
+     * Gets all distinct n-grams of the given value, in order of first occurrence.
+     * Values shorter than the n-gram size have no n-grams and cannot be searched using the index.
+     *
+     * @param value Value to tokenize
+     * @param size N-gram size
+     * @return Set of n-grams
+     */
+    public static Set<ByteBuffer> getNGrams(byte[] value, int size)
+    {
+        if (size <= 0) {
+            throw new IllegalArgumentException("N-gram size must be positive, found " + size);
+        }
+
+        Set<ByteBuffer> ngrams = new LinkedHashSet<>();
+        for (int i = 0; i + size <= value.length; ++i) {
+            ngrams.add(ByteBuffer.wrap(Arrays.copyOfRange(value, i, i + size)));
+        }
+        return ngrams;
+    }
+
+    /**
+     * Gets the index column family holding the postings of the given n-gram for a data column
+     *
+     * @param family Data column family
+     * @param qualifier Data column qualifier
+     * @param ngram N-gram bytes
+     * @return Index column family
+     */
+    public static byte[] getIndexFamily(byte[] family, byte[] qualifier, ByteBuffer ngram)
+    {
+        byte[] column = getColumnPrefix(family, qualifier);
+        byte[] indexFamily = new byte[column.length + 1 + ngram.remaining()];
+        System.arraycopy(column, 0, indexFamily, 0, column.length);
+        indexFamily[column.length] = SEPARATOR;
+        ngram.duplicate().get(indexFamily, column.length + 1, ngram.remaining());
+        return indexFamily;
+    }
+
+    /**
+     * Gets the shard of the n-gram index that holds the postings for the given data row
+     *
+     * @param rowId Data row ID
+     * @param numShards Number of shards in the index
+     * @return Index row ID
+     */
+    public static Text getShard(byte[] rowId, int numShards)
+    {
+        int shard = (Arrays.hashCode(rowId) & Integer.MAX_VALUE) % numShards;
+        int width = Integer.toString(numShards - 1).length();
+        return new Text(String.format("%0" + width + "d", shard));
+    }
+
+    private static byte[] getColumnPrefix(byte[] family, byte[] qualifier)
+    {
+        byte[] underscore = "_".getBytes(UTF_8);
+        byte[] column = new byte[family.length + underscore.length + qualifier.length];
+        System.arraycopy(family, 0, column, 0, family.length);
+        System.arraycopy(underscore, 0, column, family.length, underscore.length);
+        System.arraycopy(qualifier, 0, column, family.length + underscore.length, qualifier.length);
+        return column;
+    }
+}
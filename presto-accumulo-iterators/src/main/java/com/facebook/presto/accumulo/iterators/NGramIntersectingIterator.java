@@ -0,0 +1,159 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.user.IntersectingIterator;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Scans an n-gram index table (see {@link NGramIndex}) for the data row IDs that contain every n-gram of a search term.
+ * The search term is tokenized at init time and the postings of each n-gram are intersected per shard, returning one
+ * key per candidate whose column qualifier is the data row ID. Candidates may be false positives, as the n-grams can
+ * appear in a different order, so they must still be verified against the data table, e.g. with a {@link SubstringFilter}.
+ */
+public class NGramIntersectingIterator
+        extends IntersectingIterator
+        implements OptionDescriber
+{
+    protected static final String CF = "family";
+    protected static final String CQ = "qualifier";
+    protected static final String TERM = "term";
+    protected static final String NGRAM_SIZE = "ngramSize";
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        validateOptions(options);
+
+        byte[] family = options.get(CF).getBytes(UTF_8);
+        byte[] qualifier = options.get(CQ).getBytes(UTF_8);
+        int ngramSize = getNGramSize(options);
+
+        Set<ByteBuffer> ngrams = NGramIndex.getNGrams(decodeTerm(options), ngramSize);
+        Text[] terms = new Text[ngrams.size()];
+        int index = 0;
+        for (ByteBuffer ngram : ngrams) {
+            terms[index++] = new Text(NGramIndex.getIndexFamily(family, qualifier, ngram));
+        }
+
+        // Hand the n-gram column families off to the IntersectingIterator for the intersection
+        IteratorSetting setting = new IteratorSetting(0, NGramIntersectingIterator.class);
+        setColumnFamilies(setting, terms);
+        super.init(source, setting.getOptions(), env);
+    }
+
+    /**
+     * Gets a Boolean value indicating whether or not the given term is long enough to be searched using the index
+     *
+     * @param term Search term
+     * @param ngramSize N-gram size of the index
+     * @return True if the term has at least one n-gram, false otherwise
+     */
+    public static boolean isSearchable(byte[] term, int ngramSize)
+    {
+        return term.length >= ngramSize;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("ngramintersectingiterator", "Intersects the postings of all n-grams of a search term in an n-gram index table, returning candidate data row IDs",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(CF, "column family of the indexed column, required").put(CQ, "column qualifier of the indexed column, required").put(TERM, "Hex-encoded bytes of the search term, required").put(NGRAM_SIZE, "size of the indexed n-grams, default " + NGramIndex.DEFAULT_NGRAM_SIZE).build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(CF, options);
+        checkNotNull(CQ, options);
+        checkNotNull(TERM, options);
+
+        int ngramSize;
+        try {
+            ngramSize = getNGramSize(options);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + NGRAM_SIZE + " is not an integer: " + options.get(NGRAM_SIZE), e);
+        }
+
+        if (!isSearchable(decodeTerm(options), ngramSize)) {
+            throw new IllegalArgumentException("Search term is shorter than the n-gram size " + ngramSize + " and cannot be searched using the index");
+        }
+
+        return true;
+    }
+
+    private static byte[] decodeTerm(Map<String, String> options)
+    {
+        try {
+            return Hex.decodeHex(options.get(TERM).toCharArray());
+        }
+        catch (DecoderException e) {
+            throw new IllegalArgumentException("Option " + TERM + " is not a hex-encoded value: " + options.get(TERM), e);
+        }
+    }
+
+    private static int getNGramSize(Map<String, String> options)
+    {
+        String size = options.get(NGRAM_SIZE);
+        return size == null ? NGramIndex.DEFAULT_NGRAM_SIZE : Integer.parseInt(size);
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier, byte[] term)
+    {
+        return getProperties(family, qualifier, term, NGramIndex.DEFAULT_NGRAM_SIZE);
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier, byte[] term, int ngramSize)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(CF, family);
+        opts.put(CQ, qualifier);
+        opts.put(TERM, Hex.encodeHexString(term));
+        opts.put(NGRAM_SIZE, Integer.toString(ngramSize));
+
+        return opts;
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.user.RowFilter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accepts the rows of one hash partition of a range, so several scanners can each read a disjoint slice of the same
+ * tablet concurrently. A row belongs to partition <code>murmur3(row ID) mod partitionCount</code>, so the partitions
+ * 0 to partitionCount - 1 together cover every row exactly once.
+ * It can be combined with the other row filters using the {@link AndFilter} and {@link OrFilter}.
+ */
+public class PartitionRowFilter
+        extends RowFilter
+        implements OptionDescriber
+{
+    protected static final String PARTITION_COUNT = "partitionCount";
+    protected static final String PARTITION_ID = "partitionId";
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_32();
+
+    private int partitionCount;
+    private int partitionId;
+
+    @Override
+    public boolean acceptRow(SortedKeyValueIterator<Key, Value> rowIterator)
+            throws IOException
+    {
+        if (!rowIterator.hasTop()) {
+            return false;
+        }
+
+        return getPartition(rowIterator.getTopKey().getRowData(), partitionCount) == partitionId;
+    }
+
+    /**
+     * Gets the partition of the given row ID
+     *
+     * @param row Row ID
+     * @param partitionCount Total number of partitions
+     * @return Partition ID, from 0 to partitionCount - 1
+     */
+    public static int getPartition(ByteSequence row, int partitionCount)
+    {
+        int hash = HASH_FUNCTION.hashBytes(row.getBackingArray(), row.offset(), row.length()).asInt();
+        return (int) ((hash & 0xffffffffL) % partitionCount);
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        partitionCount = Integer.parseInt(options.get(PARTITION_COUNT));
+        partitionId = Integer.parseInt(options.get(PARTITION_ID));
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        PartitionRowFilter copy = new PartitionRowFilter();
+        copy.partitionCount = this.partitionCount;
+        copy.partitionId = this.partitionId;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("partitionrowfilter", "Filter accepts the rows whose row ID hashes to the given partition",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(PARTITION_COUNT, "Total number of partitions, required").put(PARTITION_ID, "Partition to accept, from 0 to partitionCount - 1, required").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(PARTITION_COUNT, options);
+        checkNotNull(PARTITION_ID, options);
+
+        try {
+            int partitionCount = Integer.parseInt(options.get(PARTITION_COUNT));
+            int partitionId = Integer.parseInt(options.get(PARTITION_ID));
+            if (partitionCount <= 0 || partitionId < 0 || partitionId >= partitionCount) {
+                throw new IllegalArgumentException(String.format("Partition %d is not within partition count %d", partitionId, partitionCount));
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad partition option", e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    public static Map<String, String> getProperties(int partitionCount, int partitionId)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(PARTITION_COUNT, Integer.toString(partitionCount));
+        opts.put(PARTITION_ID, Integer.toString(partitionId));
+
+        return opts;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("PartitionRowFilter{partitionCount=%d,partitionId=%d}", partitionCount, partitionId);
+    }
+}
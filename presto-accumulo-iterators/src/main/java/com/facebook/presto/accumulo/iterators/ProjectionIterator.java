@@ -0,0 +1,343 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.accumulo.core.iterators.conf.ColumnSet;
+import org.apache.accumulo.core.util.Pair;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact alternative to the WholeRowIterator for scans that project a few columns of a wide row.
+ * <p>
+ * Given a dictionary of columns, this iterator emits one Key/Value pair per row that contains at least one of them.
+ * The Key holds only the row ID, and the Value packs the latest version of each projected column as a sequence of
+ * <code>(vint column ID, vint length, bytes)</code> entries, where the column ID is the column's position in the
+ * dictionary. All other columns, and the repeated row/family/qualifier bytes of each cell, never leave the tablet server.
+ * Use {@link ProjectionIterator#decodeColumns} to unpack the Value on the client.
+ */
+public class ProjectionIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    protected static final String COLUMNS = "columns";
+
+    // Column family -> column qualifier -> dictionary ID
+    private Map<ByteSequence, Map<ByteSequence, Integer>> dictionary;
+    private List<String> columns;
+    private Set<ByteSequence> families;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private byte[][] values;
+
+    private Key topKey = null;
+    private Value topValue = null;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+        setDictionary(parseColumns(options.get(COLUMNS)));
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        // If the range starts mid-row, e.g. when a scan session is re-established after returning part of the
+        // results, skip to the following row so a row is never emitted twice
+        Range seekRange = range;
+        if (range.getStartKey() != null && !range.isStartKeyInclusive()) {
+            Key followingRow = range.getStartKey().followingKey(PartialKey.ROW);
+            if (range.afterEndKey(followingRow)) {
+                setTop(null, null);
+                return;
+            }
+            seekRange = new Range(followingRow, true, range.getEndKey(), range.isEndKeyInclusive());
+        }
+
+        // Read only the locality groups holding projected columns, unless the client asked for something specific
+        if (columnFamilies.isEmpty() && !inclusive) {
+            super.seek(seekRange, families, true);
+        }
+        else {
+            super.seek(seekRange, columnFamilies, inclusive);
+        }
+        findTop();
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        findTop();
+    }
+
+    @Override
+    public boolean hasTop()
+    {
+        return topKey != null;
+    }
+
+    @Override
+    public Key getTopKey()
+    {
+        return topKey;
+    }
+
+    @Override
+    public Value getTopValue()
+    {
+        return topValue;
+    }
+
+    /**
+     * Advances the source to the next row containing at least one projected column, setting the top Key/Value
+     *
+     * @throws IOException If an error occurs reading the source
+     */
+    protected void findTop()
+            throws IOException
+    {
+        setTop(null, null);
+
+        Text currentRow = new Text();
+        while (topKey == null && getSource().hasTop()) {
+            if (readRow(currentRow, values)) {
+                buffer.reset();
+                for (int id = 0; id < values.length; ++id) {
+                    if (values[id] != null) {
+                        WritableUtils.writeVInt(out, id);
+                        WritableUtils.writeVInt(out, values[id].length);
+                        out.write(values[id]);
+                    }
+                }
+                out.flush();
+                setTop(new Key(currentRow), new Value(buffer.toByteArray()));
+            }
+        }
+    }
+
+    /**
+     * Reads all cells of the source's current row, leaving the source positioned at the start of the next row
+     *
+     * @param row Text to hold the row ID
+     * @param values Array indexed by column ID to hold the latest value of each projected column, or null if not present
+     * @return True if at least one projected column was found in the row, false otherwise
+     * @throws IOException If an error occurs reading the source
+     */
+    protected boolean readRow(Text row, byte[][] values)
+            throws IOException
+    {
+        getSource().getTopKey().getRow(row);
+        Arrays.fill(values, null);
+
+        boolean found = false;
+        while (getSource().hasTop() && getSource().getTopKey().compareRow(row) == 0) {
+            Key key = getSource().getTopKey();
+            Integer id = getColumnId(key);
+
+            // Keys are sorted newest version first, so keep only the first one we see for each column
+            if (id != null && !key.isDeleted() && values[id] == null) {
+                byte[] value = getSource().getTopValue().get();
+                values[id] = Arrays.copyOf(value, value.length);
+                found = true;
+            }
+            getSource().next();
+        }
+
+        return found;
+    }
+
+    protected void setTop(Key key, Value value)
+    {
+        topKey = key;
+        topValue = value;
+    }
+
+    protected int getNumColumns()
+    {
+        return columns.size();
+    }
+
+    private Integer getColumnId(Key key)
+    {
+        Map<ByteSequence, Integer> qualifiers = dictionary.get(key.getColumnFamilyData());
+        return qualifiers == null ? null : qualifiers.get(key.getColumnQualifierData());
+    }
+
+    protected void setDictionary(List<Pair<Text, Text>> columns)
+    {
+        dictionary = new HashMap<>();
+        families = new HashSet<>();
+        this.columns = new ArrayList<>();
+
+        int id = 0;
+        for (Pair<Text, Text> column : columns) {
+            ByteSequence family = new ArrayByteSequence(column.getFirst().copyBytes());
+            Map<ByteSequence, Integer> qualifiers = dictionary.get(family);
+            if (qualifiers == null) {
+                qualifiers = new HashMap<>();
+                dictionary.put(family, qualifiers);
+            }
+            qualifiers.put(new ArrayByteSequence(column.getSecond().copyBytes()), id++);
+            families.add(family);
+            this.columns.add(ColumnSet.encodeColumns(column.getFirst(), column.getSecond()));
+        }
+
+        values = new byte[id][];
+    }
+
+    protected static List<Pair<Text, Text>> parseColumns(String encodedColumns)
+    {
+        List<Pair<Text, Text>> columns = new ArrayList<>();
+        for (String column : StringUtils.split(encodedColumns, ',')) {
+            Pair<Text, Text> pair = ColumnSet.decodeColumns(column);
+            if (pair.getSecond() == null) {
+                throw new IllegalArgumentException("Column " + column + " must specify both a family and a qualifier");
+            }
+            columns.add(pair);
+        }
+        return columns;
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        ProjectionIterator copy = new ProjectionIterator();
+        copyTo(copy, env);
+        return copy;
+    }
+
+    /**
+     * Initializes the given copy with a deep copy of this iterator's source and the same column dictionary
+     *
+     * @param copy Iterator to initialize
+     * @param env Iterator environment
+     */
+    protected void copyTo(ProjectionIterator copy, IteratorEnvironment env)
+    {
+        copy.setSource(getSource().deepCopy(env));
+
+        List<Pair<Text, Text>> pairs = new ArrayList<>();
+        for (String column : columns) {
+            pairs.add(ColumnSet.decodeColumns(column));
+        }
+        copy.setDictionary(pairs);
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("projectioniterator", "Emits one Key/Value pair per row, packing the values of the projected columns keyed by their position in the column dictionary",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(COLUMNS, "Comma-delimited dictionary of <col fam>:<col qual> to project, in ID order (escape non-alphanum chars using %<hex>), required").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        String columns = options.get(COLUMNS);
+        if (columns == null || columns.isEmpty()) {
+            throw new IllegalArgumentException("Option " + COLUMNS + " is required");
+        }
+
+        for (String column : StringUtils.split(columns, ',')) {
+            if (!ColumnSet.isValidEncoding(column)) {
+                throw new IllegalArgumentException("Invalid encoding for column " + column);
+            }
+        }
+
+        parseColumns(columns);
+        return true;
+    }
+
+    /**
+     * A convenience method for setting the dictionary of projected columns. The ID of each column is its index in the list.
+     *
+     * @param is IteratorSetting object to configure
+     * @param columns Columns to project, each requiring both a family and a qualifier
+     */
+    public static void setColumns(IteratorSetting is, List<IteratorSetting.Column> columns)
+    {
+        List<String> encoded = new ArrayList<>(columns.size());
+        for (IteratorSetting.Column column : columns) {
+            if (column.getSecond() == null) {
+                throw new IllegalArgumentException("Column " + column.getFirst() + " must specify both a family and a qualifier");
+            }
+            encoded.add(ColumnSet.encodeColumns(column.getColumnFamily(), column.getColumnQualifier()));
+        }
+        is.addOption(COLUMNS, StringUtils.join(encoded, ','));
+    }
+
+    /**
+     * Decodes a Value emitted by this iterator into an array indexed by column ID.
+     * Columns that were not present in the row are null.
+     *
+     * @param value Value to decode
+     * @param numColumns Number of columns in the dictionary
+     * @return Array of column values indexed by column ID
+     * @throws IOException If the value is not properly encoded
+     */
+    public static byte[][] decodeColumns(Value value, int numColumns)
+            throws IOException
+    {
+        byte[][] decoded = new byte[numColumns][];
+        byte[] bytes = value.get();
+
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+        while (in.getPosition() < bytes.length) {
+            int id = WritableUtils.readVInt(in);
+            int length = WritableUtils.readVInt(in);
+            byte[] columnValue = new byte[length];
+            in.readFully(columnValue);
+            decoded[id] = columnValue;
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.lexicoder.DoubleLexicoder;
+import org.apache.accumulo.core.client.lexicoder.LongLexicoder;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.accumulo.core.iterators.conf.ColumnSet;
+import org.apache.accumulo.core.util.Pair;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A major compaction iterator that re-encodes the values of the given columns from the encoding of one Presto row
+ * serializer to that of another, so a table moves from the StringRowSerializer to the LexicoderRowSerializer (or back)
+ * in place as its tablets are compacted, without copying it.
+ * <p>
+ * Each column is mapped to its Presto type. BIGINT, INTEGER, SMALLINT, TINYINT, DATE, TIME, and TIMESTAMP values are
+ * longs, written as decimal strings or by the LongLexicoder, DOUBLE and REAL values are written as decimal strings or by
+ * the DoubleLexicoder, and BOOLEAN values as true/false or a single 1/0 byte. VARCHAR and VARBINARY values are the same
+ * bytes in both encodings. The encodings are told apart by their first byte, so a value already in the target encoding
+ * is left as is and compactions may be repeated or interrupted. A value in neither encoding is logged and left as is.
+ * <p>
+ * Only values are re-encoded, as re-encoding a Key would change its order: row IDs and index tables keep their
+ * encoding. The iterator does nothing outside of major compactions, so configure it as a one-shot compaction iterator.
+ */
+public class ReEncodingIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    private static final Logger LOG = Logger.getLogger(ReEncodingIterator.class);
+
+    public enum Encoding
+    {
+        STRING, LEXICODER
+    }
+
+    public enum Type
+    {
+        BIGINT, BOOLEAN, DATE, DOUBLE, INTEGER, REAL, SMALLINT, TIME, TIMESTAMP, TINYINT, VARBINARY, VARCHAR
+    }
+
+    protected static final String COLUMNS = "columns";
+    protected static final String SOURCE = "source";
+    protected static final String TARGET = "target";
+
+    private static final LongLexicoder LONG_LEXICODER = new LongLexicoder();
+    private static final DoubleLexicoder DOUBLE_LEXICODER = new DoubleLexicoder();
+    private static final byte[] TRUE = "true".getBytes(UTF_8);
+    private static final byte[] FALSE = "false".getBytes(UTF_8);
+
+    private String encodedColumns;
+    private Map<ByteSequence, Map<ByteSequence, Type>> columns;
+    private Encoding source;
+    private Encoding target;
+    private boolean reEncode;
+
+    private long numReEncoded = 0;
+    private long numMalformed = 0;
+
+    private Value topValue = null;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+        setOptions(options.get(COLUMNS), Encoding.valueOf(options.get(SOURCE)), Encoding.valueOf(options.get(TARGET)));
+        reEncode = env != null && env.getIteratorScope() == IteratorScope.majc;
+    }
+
+    private void setOptions(String encodedColumns, Encoding source, Encoding target)
+    {
+        this.encodedColumns = encodedColumns;
+        this.columns = decodeColumns(encodedColumns);
+        this.source = source;
+        this.target = target;
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        super.seek(range, columnFamilies, inclusive);
+        findTop();
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        super.next();
+        findTop();
+    }
+
+    @Override
+    public Value getTopValue()
+    {
+        return topValue != null ? topValue : super.getTopValue();
+    }
+
+    private void findTop()
+    {
+        topValue = null;
+        if (!reEncode || source == target || !getSource().hasTop() || getSource().getTopKey().isDeleted()) {
+            return;
+        }
+
+        Key key = getSource().getTopKey();
+        Map<ByteSequence, Type> qualifiers = columns.get(key.getColumnFamilyData());
+        Type type = qualifiers != null ? qualifiers.get(key.getColumnQualifierData()) : null;
+        if (type == null) {
+            return;
+        }
+
+        byte[] bytes = getSource().getTopValue().get();
+        if (bytes.length == 0 || type == Type.VARCHAR || type == Type.VARBINARY || isEncoded(type, target, bytes)) {
+            return;
+        }
+
+        if (!isEncoded(type, source, bytes)) {
+            ++numMalformed;
+            LOG.warn(String.format("Value of %s is neither %s nor %s %s, leaving it as is, %d such values so far", key, source, target, type, numMalformed));
+            return;
+        }
+
+        topValue = new Value(encode(type, target, decode(type, source, bytes)));
+        ++numReEncoded;
+    }
+
+    private static boolean isEncoded(Type type, Encoding encoding, byte[] bytes)
+    {
+        if (encoding == Encoding.LEXICODER) {
+            if (type == Type.BOOLEAN) {
+                return bytes.length == 1 && (bytes[0] == 0 || bytes[0] == 1);
+            }
+
+            // The first byte counts the significant bytes that follow, less 16 when the leading 0xff bytes were trimmed
+            return bytes[0] >= 0 && bytes[0] <= 16 && (bytes[0] > 8 ? 16 - bytes[0] : bytes[0]) == bytes.length - 1;
+        }
+
+        try {
+            decode(type, encoding, bytes);
+            return true;
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Decodes a value to a Long, a Double, or a Boolean
+     */
+    private static Object decode(Type type, Encoding encoding, byte[] bytes)
+    {
+        switch (type) {
+            case BOOLEAN:
+                if (encoding == Encoding.LEXICODER) {
+                    return bytes[0] == 1;
+                }
+                else if (Arrays.equals(bytes, TRUE)) {
+                    return true;
+                }
+                else if (Arrays.equals(bytes, FALSE)) {
+                    return false;
+                }
+                throw new IllegalArgumentException("Not a boolean: " + new String(bytes, UTF_8));
+            case DOUBLE:
+            case REAL:
+                return encoding == Encoding.LEXICODER ? Lexicoders.decodeDouble(bytes) : Double.parseDouble(new String(bytes, UTF_8));
+            default:
+                return encoding == Encoding.LEXICODER ? Lexicoders.decodeLong(bytes) : Long.parseLong(new String(bytes, UTF_8));
+        }
+    }
+
+    private static byte[] encode(Type type, Encoding encoding, Object value)
+    {
+        switch (type) {
+            case BOOLEAN:
+                if (encoding == Encoding.LEXICODER) {
+                    return new byte[] {(byte) ((Boolean) value ? 1 : 0)};
+                }
+                return (Boolean) value ? TRUE : FALSE;
+            case DOUBLE:
+                return encoding == Encoding.LEXICODER ? DOUBLE_LEXICODER.encode((Double) value) : value.toString().getBytes(UTF_8);
+            case REAL:
+                return encoding == Encoding.LEXICODER ? DOUBLE_LEXICODER.encode((Double) value) : Float.toString(((Double) value).floatValue()).getBytes(UTF_8);
+            default:
+                return encoding == Encoding.LEXICODER ? LONG_LEXICODER.encode((Long) value) : value.toString().getBytes(UTF_8);
+        }
+    }
+
+    private static Map<ByteSequence, Map<ByteSequence, Type>> decodeColumns(String encodedColumns)
+    {
+        Map<ByteSequence, Map<ByteSequence, Type>> columns = new HashMap<>();
+        for (String column : StringUtils.split(encodedColumns, ',')) {
+            int separator = column.lastIndexOf(':');
+            Pair<Text, Text> familyQualifier = ColumnSet.decodeColumns(column.substring(0, separator));
+            ByteSequence family = new ArrayByteSequence(familyQualifier.getFirst().copyBytes());
+            if (!columns.containsKey(family)) {
+                columns.put(family, new HashMap<ByteSequence, Type>());
+            }
+            columns.get(family).put(new ArrayByteSequence(familyQualifier.getSecond().copyBytes()), Type.valueOf(column.substring(separator + 1)));
+        }
+        return columns;
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        ReEncodingIterator copy = new ReEncodingIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.setOptions(encodedColumns, source, target);
+        copy.reEncode = reEncode;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("reencodingiterator", "Re-encodes the values of columns from one Presto row serializer to another during major compactions",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(COLUMNS, "Comma-delimited <col fam>:<col qual>:<type> to re-encode (escape non-alphanum chars using %<hex>), required").put(SOURCE, "<STRING|LEXICODER> current encoding of the values, required").put(TARGET, "<STRING|LEXICODER> new encoding of the values, required").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(COLUMNS, options);
+        checkNotNull(SOURCE, options);
+        checkNotNull(TARGET, options);
+
+        try {
+            for (String column : StringUtils.split(options.get(COLUMNS), ',')) {
+                int separator = column.lastIndexOf(':');
+                if (separator < 0 || !ColumnSet.isValidEncoding(column.substring(0, separator)) || ColumnSet.decodeColumns(column.substring(0, separator)).getSecond() == null) {
+                    throw new IllegalArgumentException("Invalid encoding for column " + column);
+                }
+                Type.valueOf(column.substring(separator + 1));
+            }
+
+            Encoding.valueOf(options.get(SOURCE));
+            Encoding.valueOf(options.get(TARGET));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad re-encoding option", e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    /**
+     * A convenience method for configuring the re-encoding
+     *
+     * @param is IteratorSetting object to configure
+     * @param columns Columns to re-encode, each with a qualifier, and their Presto types
+     * @param source Current encoding of the values
+     * @param target New encoding of the values
+     */
+    public static void setEncodings(IteratorSetting is, Map<IteratorSetting.Column, Type> columns, Encoding source, Encoding target)
+    {
+        List<String> encoded = new ArrayList<>(columns.size());
+        for (Map.Entry<IteratorSetting.Column, Type> column : columns.entrySet()) {
+            encoded.add(ColumnSet.encodeColumns(column.getKey().getColumnFamily(), column.getKey().getColumnQualifier()) + ":" + column.getValue().name());
+        }
+
+        is.addOption(COLUMNS, StringUtils.join(encoded, ','));
+        is.addOption(SOURCE, source.name());
+        is.addOption(TARGET, target.name());
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("ReEncodingIterator{columns=%s,source=%s,target=%s,numReEncoded=%d,numMalformed=%d}", encodedColumns, source, target, numReEncoded, numMalformed);
+    }
+}
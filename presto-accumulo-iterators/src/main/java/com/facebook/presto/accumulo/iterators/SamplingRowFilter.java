@@ -0,0 +1,139 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.user.RowFilter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accepts a deterministic sample of rows, i.e. TABLESAMPLE, by hashing the row ID with a seeded Murmur3 hash and
+ * keeping the rows whose hash falls under the configured ratio. Only the row ID is read, so rejected rows are
+ * skipped without being decoded, and the same rows are sampled on every tablet and every run for a given seed.
+ * It can be combined with the other row filters using the {@link AndFilter} and {@link OrFilter}.
+ */
+public class SamplingRowFilter
+        extends RowFilter
+        implements OptionDescriber
+{
+    protected static final String RATIO = "ratio";
+    protected static final String SEED = "seed";
+
+    private static final long HASH_RANGE = 1L << 32;
+
+    private double ratio;
+    private int seed;
+    private HashFunction hashFunction;
+    private long threshold;
+
+    @Override
+    public boolean acceptRow(SortedKeyValueIterator<Key, Value> rowIterator)
+            throws IOException
+    {
+        if (!rowIterator.hasTop()) {
+            return false;
+        }
+
+        ByteSequence row = rowIterator.getTopKey().getRowData();
+        int hash = hashFunction.hashBytes(row.getBackingArray(), row.offset(), row.length()).asInt();
+        return (hash & 0xffffffffL) < threshold;
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        setRatio(Double.parseDouble(options.get(RATIO)), options.containsKey(SEED) ? Integer.parseInt(options.get(SEED)) : 0);
+    }
+
+    private void setRatio(double ratio, int seed)
+    {
+        this.ratio = ratio;
+        this.seed = seed;
+        this.hashFunction = Hashing.murmur3_32(seed);
+        this.threshold = (long) Math.ceil(ratio * HASH_RANGE);
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        SamplingRowFilter copy = new SamplingRowFilter();
+        copy.setRatio(ratio, seed);
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("samplingrowfilter", "Filter accepts a deterministic sample of rows based on a seeded hash of the row ID",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(RATIO, "Fraction of rows to accept, between 0 and 1, required").put(SEED, "Seed of the row ID hash, default 0").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        if (options.get(RATIO) == null) {
+            throw new IllegalArgumentException("Option " + RATIO + " is required");
+        }
+
+        try {
+            double ratio = Double.parseDouble(options.get(RATIO));
+            if (!(ratio >= 0 && ratio <= 1)) {
+                throw new IllegalArgumentException("Option " + RATIO + " must be between 0 and 1: " + options.get(RATIO));
+            }
+
+            if (options.containsKey(SEED)) {
+                Integer.parseInt(options.get(SEED));
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad sampling option", e);
+        }
+
+        return true;
+    }
+
+    public static Map<String, String> getProperties(double ratio, int seed)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(RATIO, Double.toString(ratio));
+        opts.put(SEED, Integer.toString(seed));
+
+        return opts;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("SamplingRowFilter{ratio=%s,seed=%d}", ratio, seed);
+    }
+}
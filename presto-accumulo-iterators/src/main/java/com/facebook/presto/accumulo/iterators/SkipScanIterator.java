@@ -0,0 +1,420 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Bytes;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Skip-scan filter over composite row IDs, e.g. <code>tenant|date|uuid</code>, accepting the rows where a non-leading
+ * component is within an inclusive range of bytes.
+ * <p>
+ * The row layout is either delimited by a single byte or made of fixed-length components. Rather than reading every row,
+ * the iterator seeks directly to the lower bound within each distinct prefix of leading components, and once a row
+ * exceeds the upper bound and no row of the prefix within the upper bound can follow it, it seeks past all remaining
+ * rows sharing that prefix. As a delimiter can sort after the bytes of a component, e.g. row <code>a|202|x</code> sorts
+ * after <code>a|2021</code>, the iterator moves on to the next row rather than seeking whenever a seek would not move
+ * forward. Rows that do not contain the component are skipped. Accepted rows are passed through unchanged.
+ */
+public class SkipScanIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    protected static final String DELIMITER = "delimiter";
+    protected static final String LENGTHS = "lengths";
+    protected static final String COMPONENT = "component";
+    protected static final String LOWER = "lower";
+    protected static final String UPPER = "upper";
+
+    private byte[] delimiter;
+    private int[] lengths;
+    private int component;
+    private byte[] lower;
+    private byte[] upper;
+
+    private Range range;
+    private Collection<ByteSequence> columnFamilies;
+    private boolean inclusive;
+    private boolean endOfRange;
+    private final Text currentRow = new Text();
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+
+        try {
+            delimiter = options.containsKey(DELIMITER) ? Hex.decodeHex(options.get(DELIMITER).toCharArray()) : null;
+            lower = options.containsKey(LOWER) ? Hex.decodeHex(options.get(LOWER).toCharArray()) : null;
+            upper = options.containsKey(UPPER) ? Hex.decodeHex(options.get(UPPER).toCharArray()) : null;
+        }
+        catch (DecoderException e) {
+            // should not occur, as validateOptions tries this same thing
+            throw new IllegalArgumentException("Error decoding hex value in option", e);
+        }
+
+        lengths = options.containsKey(LENGTHS) ? parseLengths(options.get(LENGTHS)) : null;
+        component = Integer.parseInt(options.get(COMPONENT));
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        this.range = range;
+        this.columnFamilies = columnFamilies;
+        this.inclusive = inclusive;
+        this.endOfRange = false;
+
+        super.seek(range, columnFamilies, inclusive);
+        findTop();
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        super.next();
+        if (getSource().hasTop() && getSource().getTopKey().compareRow(currentRow) != 0) {
+            findTop();
+        }
+    }
+
+    @Override
+    public boolean hasTop()
+    {
+        return !endOfRange && super.hasTop();
+    }
+
+    private void findTop()
+            throws IOException
+    {
+        while (!endOfRange && getSource().hasTop()) {
+            ByteSequence row = getSource().getTopKey().getRowData();
+            byte[] rowBytes = row.toArray();
+
+            int prefixLength = getPrefixLength(rowBytes);
+            if (prefixLength < 0) {
+                // Row does not have enough components
+                seekTo(getSource().getTopKey().followingKey(PartialKey.ROW));
+                continue;
+            }
+
+            int componentLength = getComponentLength(rowBytes, prefixLength);
+            if (lower != null && compare(rowBytes, prefixLength, componentLength, lower) < 0) {
+                // Jump to the lower bound within this prefix, unless the row already sorts after it, e.g. row a|202|x
+                // sorts after a|2021 as the delimiter sorts after the digits, in which case move on to the next row
+                byte[] target = Bytes.concat(Arrays.copyOf(rowBytes, prefixLength), lower);
+                if (compare(target, 0, target.length, rowBytes) > 0) {
+                    seekTo(new Key(new Text(target)));
+                }
+                else {
+                    seekTo(getSource().getTopKey().followingKey(PartialKey.ROW));
+                }
+            }
+            else if (upper != null && compare(rowBytes, prefixLength, componentLength, upper) > 0) {
+                // Jump past every remaining row of this prefix once no row of it within the upper bound can follow,
+                // e.g. row t|2021|x follows row t|20210|x, otherwise move on to the next row
+                byte[] fence = getUpperFence(rowBytes, prefixLength);
+                if (fence == null || compare(rowBytes, 0, rowBytes.length, fence) < 0) {
+                    seekTo(getSource().getTopKey().followingKey(PartialKey.ROW));
+                    continue;
+                }
+
+                Text followingPrefix = Range.followingPrefix(new Text(Arrays.copyOf(rowBytes, prefixLength)));
+                if (prefixLength == 0 || followingPrefix == null) {
+                    endOfRange = true;
+                }
+                else {
+                    seekTo(new Key(followingPrefix));
+                }
+            }
+            else {
+                currentRow.set(rowBytes);
+                return;
+            }
+        }
+    }
+
+    // The given key always sorts after the current row, so this only ever seeks forward within the range
+    private void seekTo(Key key)
+            throws IOException
+    {
+        if (range.afterEndKey(key)) {
+            endOfRange = true;
+            return;
+        }
+
+        super.seek(new Range(key, true, range.getEndKey(), range.isEndKeyInclusive()), columnFamilies, inclusive);
+    }
+
+    /**
+     * Gets the length of the leading components, including the trailing delimiter
+     *
+     * @param row Row ID
+     * @return Length of the prefix, or -1 if the row does not have the component
+     */
+    private int getPrefixLength(byte[] row)
+    {
+        int offset = 0;
+        for (int i = 0; i < component; ++i) {
+            if (delimiter != null) {
+                int index = indexOf(row, offset, delimiter[0]);
+                if (index < 0) {
+                    return -1;
+                }
+                offset = index + 1;
+            }
+            else {
+                offset += lengths[i];
+                if (offset > row.length) {
+                    return -1;
+                }
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Gets the smallest row that sorts after every row with the given prefix whose component is within the upper
+     * bound. In the delimited layout, this is the greatest of the rows following the prefix, each prefix of the upper
+     * bound, and the delimiter, as a shorter component followed by the delimiter can sort after a longer one.
+     *
+     * @param row Row ID
+     * @param prefixLength Length of the leading components of the row
+     * @return Row ID of the fence, or null if no row sorts after every such row
+     */
+    private byte[] getUpperFence(byte[] row, int prefixLength)
+    {
+        byte[] prefix = Arrays.copyOf(row, prefixLength);
+        if (delimiter == null) {
+            int length = component < lengths.length ? Math.min(lengths[component], upper.length) : upper.length;
+            return followingPrefix(Bytes.concat(prefix, Arrays.copyOf(upper, length)));
+        }
+
+        byte[] fence = null;
+        for (int length = 0; length <= upper.length; ++length) {
+            byte[] following = followingPrefix(Bytes.concat(prefix, Arrays.copyOf(upper, length), delimiter));
+            if (following == null) {
+                return null;
+            }
+
+            if (fence == null || compare(following, 0, following.length, fence) > 0) {
+                fence = following;
+            }
+        }
+        return fence;
+    }
+
+    private static byte[] followingPrefix(byte[] prefix)
+    {
+        Text following = Range.followingPrefix(new Text(prefix));
+        return following == null ? null : following.copyBytes();
+    }
+
+    private int getComponentLength(byte[] row, int offset)
+    {
+        if (delimiter != null) {
+            int index = indexOf(row, offset, delimiter[0]);
+            return (index < 0 ? row.length : index) - offset;
+        }
+        else if (component < lengths.length) {
+            return Math.min(lengths[component], row.length - offset);
+        }
+        return row.length - offset;
+    }
+
+    private static int indexOf(byte[] bytes, int offset, byte b)
+    {
+        for (int i = offset; i < bytes.length; ++i) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int compare(byte[] row, int offset, int length, byte[] bound)
+    {
+        return WritableComparator.compareBytes(row, offset, length, bound, 0, bound.length);
+    }
+
+    private static int[] parseLengths(String lengths)
+    {
+        String[] tokens = StringUtils.split(lengths, ',');
+        int[] parsed = new int[tokens.length];
+        for (int i = 0; i < tokens.length; ++i) {
+            parsed[i] = Integer.parseInt(tokens[i].trim());
+            if (parsed[i] <= 0) {
+                throw new IllegalArgumentException("Component lengths must be positive: " + lengths);
+            }
+        }
+        return parsed;
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        SkipScanIterator copy = new SkipScanIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.delimiter = this.delimiter;
+        copy.lengths = this.lengths;
+        copy.component = this.component;
+        copy.lower = this.lower;
+        copy.upper = this.upper;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("skipscaniterator", "Accepts rows where a component of a composite row ID is within a range, seeking between the distinct prefixes of leading components",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(DELIMITER, "Hex-encoded single byte delimiting the components, required unless lengths is set").put(LENGTHS, "Comma-delimited fixed lengths of the leading components, required unless delimiter is set").put(COMPONENT, "Zero-based index of the component to filter on, required").put(LOWER, "Hex-encoded inclusive lower bound of the component, optional").put(UPPER, "Hex-encoded inclusive upper bound of the component, optional").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        if (options.containsKey(DELIMITER) == options.containsKey(LENGTHS)) {
+            throw new IllegalArgumentException("Exactly one of option " + DELIMITER + " or " + LENGTHS + " is required");
+        }
+
+        checkNotNull(COMPONENT, options);
+
+        try {
+            if (options.containsKey(DELIMITER) && Hex.decodeHex(options.get(DELIMITER).toCharArray()).length != 1) {
+                throw new IllegalArgumentException("Option " + DELIMITER + " must be a single byte");
+            }
+
+            for (String opt : new String[] {LOWER, UPPER}) {
+                if (options.containsKey(opt)) {
+                    Hex.decodeHex(options.get(opt).toCharArray());
+                }
+            }
+        }
+        catch (DecoderException e) {
+            throw new IllegalArgumentException("Option is not a hex-encoded value", e);
+        }
+
+        try {
+            int component = Integer.parseInt(options.get(COMPONENT));
+            if (component < 0) {
+                throw new IllegalArgumentException("Option " + COMPONENT + " must not be negative");
+            }
+
+            if (options.containsKey(LENGTHS) && parseLengths(options.get(LENGTHS)).length < component) {
+                throw new IllegalArgumentException("Option " + LENGTHS + " must give the length of every component preceding component " + component);
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad component option", e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    /**
+     * Gets the options for a row layout whose components are separated by a delimiter
+     *
+     * @param delimiter Delimiter byte
+     * @param component Zero-based index of the component to filter on
+     * @param lower Inclusive lower bound of the component, or null for none
+     * @param upper Inclusive upper bound of the component, or null for none
+     * @return Iterator options
+     */
+    public static Map<String, String> getProperties(byte delimiter, int component, byte[] lower, byte[] upper)
+    {
+        Map<String, String> opts = getBounds(component, lower, upper);
+        opts.put(DELIMITER, Hex.encodeHexString(new byte[] {delimiter}));
+        return opts;
+    }
+
+    /**
+     * Gets the options for a row layout made of fixed-length components
+     *
+     * @param lengths Lengths of the components, at least those preceding the filtered component
+     * @param component Zero-based index of the component to filter on
+     * @param lower Inclusive lower bound of the component, or null for none
+     * @param upper Inclusive upper bound of the component, or null for none
+     * @return Iterator options
+     */
+    public static Map<String, String> getProperties(int[] lengths, int component, byte[] lower, byte[] upper)
+    {
+        Map<String, String> opts = getBounds(component, lower, upper);
+        String[] tokens = new String[lengths.length];
+        for (int i = 0; i < lengths.length; ++i) {
+            tokens[i] = Integer.toString(lengths[i]);
+        }
+        opts.put(LENGTHS, StringUtils.join(tokens, ','));
+        return opts;
+    }
+
+    private static Map<String, String> getBounds(int component, byte[] lower, byte[] upper)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(COMPONENT, Integer.toString(component));
+        if (lower != null) {
+            opts.put(LOWER, Hex.encodeHexString(lower));
+        }
+
+        if (upper != null) {
+            opts.put(UPPER, Hex.encodeHexString(upper));
+        }
+
+        return opts;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("SkipScanIterator{delimiter=%s,lengths=%s,component=%d,lower=%s,upper=%s}",
+                delimiter == null ? null : Hex.encodeHexString(delimiter), Arrays.toString(lengths), component,
+                lower == null ? null : Hex.encodeHexString(lower), upper == null ? null : Hex.encodeHexString(upper));
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.Combiner;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * A Combiner that merges serialized {@link SpaceSavingSketch} values into one, using the capacity of the first value
+ */
+public class SpaceSavingCombiner
+        extends Combiner
+{
+    @Override
+    public Value reduce(Key key, Iterator<Value> iter)
+    {
+        try {
+            SpaceSavingSketch sketch = null;
+            while (iter.hasNext()) {
+                SpaceSavingSketch next = SpaceSavingSketch.fromBytes(iter.next().get());
+                if (sketch == null) {
+                    sketch = next;
+                }
+                else {
+                    sketch.addAll(next);
+                }
+            }
+            return new Value(sketch.toBytes());
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("Failed to decode space-saving sketch of key " + key, e);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A space-saving sketch of the most frequent values of a column, i.e. its heavy hitters, which tracks at most a fixed
+ * number of values and their counts. When a value that is not tracked arrives and the sketch is full, it replaces the
+ * value with the smallest count and inherits that count as its error. The count of a tracked value is therefore an
+ * upper bound that overestimates by at most its error, and the smallest count is an upper bound of any untracked value.
+ * Sketches are merged with {@link SpaceSavingSketch#addAll}, which keeps the same guarantees. As a merged sketch may
+ * not be full even though it dropped values, it also carries an error floor, the largest count a value may have had
+ * before it was tracked, which bounds the untracked values regardless of how many values are tracked.
+ */
+public final class SpaceSavingSketch
+{
+    public static final int DEFAULT_CAPACITY = 100;
+
+    public static final class Counter
+            implements Comparable<Counter>
+    {
+        private final ByteSequence value;
+        private long count;
+        private long error;
+
+        private Counter(ByteSequence value, long count, long error)
+        {
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+
+        public byte[] getValue()
+        {
+            return value.toArray();
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getError()
+        {
+            return error;
+        }
+
+        @Override
+        public int compareTo(Counter o)
+        {
+            int compare = Long.compare(count, o.count);
+            return compare != 0 ? compare : value.compareTo(o.value);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Counter{value=%s,count=%d,error=%d}", value, count, error);
+        }
+    }
+
+    private final int capacity;
+    private final Map<ByteSequence, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> byCount = new TreeSet<>();
+    private long errorFloor = 0;
+
+    public SpaceSavingSketch(int capacity)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public void add(ByteSequence value)
+    {
+        add(value, 1);
+    }
+
+    /**
+     * Adds occurrences of a value to the sketch
+     *
+     * @param value Value to add, which is copied if it is not yet tracked
+     * @param count Number of occurrences
+     */
+    public void add(ByteSequence value, long count)
+    {
+        Counter counter = counters.get(value);
+        if (counter != null) {
+            increment(counter, count, 0);
+        }
+        else if (counters.size() < capacity) {
+            // The value may have been dropped by a merge, so it is counted from the error floor
+            track(new Counter(new ArrayByteSequence(value.toArray()), errorFloor + count, errorFloor));
+        }
+        else {
+            // Replace the value with the smallest count, which is an upper bound of the count of the new value
+            Counter min = byCount.pollFirst();
+            counters.remove(min.value);
+            track(new Counter(new ArrayByteSequence(value.toArray()), min.count + count, min.count));
+        }
+    }
+
+    private void increment(Counter counter, long count, long error)
+    {
+        byCount.remove(counter);
+        counter.count += count;
+        counter.error += error;
+        byCount.add(counter);
+    }
+
+    private void track(Counter counter)
+    {
+        counters.put(counter.value, counter);
+        byCount.add(counter);
+    }
+
+    /**
+     * Gets the smallest count of a tracked value, which is an upper bound of the count of any untracked value
+     *
+     * @return Smallest count, or the error floor if the sketch is not full, which is zero unless a merge dropped values
+     */
+    public long getMinCount()
+    {
+        return counters.size() < capacity ? errorFloor : Math.max(byCount.first().count, errorFloor);
+    }
+
+    /**
+     * Gets the error floor, which is an upper bound of the count of any untracked value however full the sketch is
+     *
+     * @return Error floor, which is zero unless sketches holding different values were merged
+     */
+    public long getErrorFloor()
+    {
+        return errorFloor;
+    }
+
+    /**
+     * Estimates the number of occurrences of a value, which is never less than the true number
+     *
+     * @param value Value to look up
+     * @return Estimated count
+     */
+    public long estimate(ByteSequence value)
+    {
+        Counter counter = counters.get(value);
+        return counter != null ? counter.count : getMinCount();
+    }
+
+    /**
+     * Gets the tracked values with the largest counts
+     *
+     * @param n Maximum number of values to return
+     * @return Counters of at most n values, in descending order of count
+     */
+    public List<Counter> getTopK(int n)
+    {
+        List<Counter> top = new ArrayList<>(Math.min(n, counters.size()));
+        for (Counter counter : byCount.descendingSet()) {
+            if (top.size() == n) {
+                break;
+            }
+            top.add(counter);
+        }
+        return Collections.unmodifiableList(top);
+    }
+
+    /**
+     * Merges the given sketch into this one. A value tracked by only one of the sketches is counted in the other as
+     * that sketch's smallest count, then only the values with the largest merged counts are kept. A value tracked by
+     * neither may have occurred as many times as both smallest counts, which becomes the error floor of the merge.
+     *
+     * @param other Sketch to merge, which may have a different capacity
+     */
+    public void addAll(SpaceSavingSketch other)
+    {
+        long thisMin = getMinCount();
+        long otherMin = other.getMinCount();
+
+        List<Counter> merged = new ArrayList<>(counters.size() + other.counters.size());
+        for (Counter counter : counters.values()) {
+            Counter otherCounter = other.counters.get(counter.value);
+            if (otherCounter != null) {
+                merged.add(new Counter(counter.value, counter.count + otherCounter.count, counter.error + otherCounter.error));
+            }
+            else {
+                merged.add(new Counter(counter.value, counter.count + otherMin, counter.error + otherMin));
+            }
+        }
+
+        for (Counter otherCounter : other.counters.values()) {
+            if (!counters.containsKey(otherCounter.value)) {
+                merged.add(new Counter(otherCounter.value, otherCounter.count + thisMin, otherCounter.error + thisMin));
+            }
+        }
+
+        Collections.sort(merged, Collections.reverseOrder());
+        counters.clear();
+        byCount.clear();
+        for (Counter counter : merged.subList(0, Math.min(capacity, merged.size()))) {
+            track(counter);
+        }
+        errorFloor = thisMin + otherMin;
+    }
+
+    /**
+     * Merges the given sketches, e.g. those written by each ingest process, into one with the capacity of the first
+     *
+     * @param sketches Sketches to merge
+     * @return Merged sketch, or null if there are none
+     */
+    public static SpaceSavingSketch union(Iterable<SpaceSavingSketch> sketches)
+    {
+        SpaceSavingSketch union = null;
+        for (SpaceSavingSketch sketch : sketches) {
+            if (union == null) {
+                union = new SpaceSavingSketch(sketch.capacity);
+            }
+            union.addAll(sketch);
+        }
+        return union;
+    }
+
+    public byte[] toBytes()
+            throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        WritableUtils.writeVInt(out, capacity);
+        WritableUtils.writeVLong(out, errorFloor);
+        WritableUtils.writeVInt(out, counters.size());
+        for (Counter counter : byCount) {
+            WritableUtils.writeVInt(out, counter.value.length());
+            out.write(counter.value.getBackingArray(), counter.value.offset(), counter.value.length());
+            WritableUtils.writeVLong(out, counter.count);
+            WritableUtils.writeVLong(out, counter.error);
+        }
+
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    public static SpaceSavingSketch fromBytes(byte[] bytes)
+            throws IOException
+    {
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+
+        SpaceSavingSketch sketch = new SpaceSavingSketch(WritableUtils.readVInt(in));
+        sketch.errorFloor = WritableUtils.readVLong(in);
+        int numCounters = WritableUtils.readVInt(in);
+        for (int i = 0; i < numCounters; ++i) {
+            byte[] value = new byte[WritableUtils.readVInt(in)];
+            in.readFully(value);
+            sketch.track(new Counter(new ArrayByteSequence(value), WritableUtils.readVLong(in), WritableUtils.readVLong(in)));
+        }
+        return sketch;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("SpaceSavingSketch{capacity=%d,numValues=%d,minCount=%d,errorFloor=%d}", capacity, counters.size(), getMinCount(), errorFloor);
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Bytes;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.user.RowFilter;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accepts rows where the value of a single column family/qualifier contains the given bytes, i.e. LIKE '%term%'.
+ * Used to verify the candidate rows returned by the {@link NGramIntersectingIterator}.
+ */
+public class SubstringFilter
+        extends RowFilter
+        implements OptionDescriber
+{
+    protected static final String CF = "family";
+    protected static final String CQ = "qualifier";
+    protected static final String TERM = "term";
+
+    private Text columnFamily;
+    private Text columnQualifier;
+    private byte[] term;
+
+    @Override
+    public boolean acceptRow(SortedKeyValueIterator<Key, Value> rowIterator)
+            throws IOException
+    {
+        while (rowIterator.hasTop()) {
+            Key k = rowIterator.getTopKey();
+            if (k.compareColumnQualifier(columnQualifier) == 0 && k.compareColumnFamily(columnFamily) == 0) {
+                return Bytes.indexOf(rowIterator.getTopValue().get(), term) >= 0;
+            }
+            rowIterator.next();
+        }
+
+        return false;
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        columnFamily = new Text(options.get(CF));
+        columnQualifier = new Text(options.get(CQ));
+
+        try {
+            term = Hex.decodeHex(options.get(TERM).toCharArray());
+        }
+        catch (DecoderException e) {
+            // should not occur, as validateOptions tries this same thing
+            throw new IllegalArgumentException("Error decoding hex value in option", e);
+        }
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        SubstringFilter copy = new SubstringFilter();
+        copy.columnFamily = new Text(this.columnFamily);
+        copy.columnQualifier = new Text(this.columnQualifier);
+        copy.term = this.term;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("substringfilter", "Filter accepts or rejects each row based on whether or not the value of a single column family/qualifier contains the given bytes",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(CF, "column family to match on, required").put(CQ, "column qualifier to match on, required").put(TERM, "Hex-encoded bytes of the substring to search for, required").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(CF, options);
+        checkNotNull(CQ, options);
+        checkNotNull(TERM, options);
+
+        try {
+            Hex.decodeHex(options.get(TERM).toCharArray());
+        }
+        catch (DecoderException e) {
+            throw new IllegalArgumentException("Option " + TERM + " is not a hex-encoded value: " + options.get(TERM), e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier, byte[] term)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(CF, family);
+        opts.put(CQ, qualifier);
+        opts.put(TERM, Hex.encodeHexString(term));
+
+        return opts;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("SubstringFilter{columnFamily=%s,columnQualifier=%s,term=%s}", columnFamily, columnQualifier, Hex.encodeHexString(term));
+    }
+}
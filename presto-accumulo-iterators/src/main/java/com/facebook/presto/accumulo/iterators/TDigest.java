@@ -0,0 +1,349 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A merging t-digest, a constant-size sketch of a distribution of numbers that estimates quantiles and the cumulative
+ * distribution function, most accurately near the tails. It is built by the {@link TDigestBuilderIterator}, merged at
+ * every compaction scope by the {@link TDigestCombiner}, and merged on the client with {@link TDigest#union}.
+ * <p>
+ * Points are buffered and periodically merged into a sorted list of centroids, each a mean and a weight, whose sizes
+ * are bounded by the arcsine scale function so there are at most about compression centroids.
+ */
+public final class TDigest
+{
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private static final Comparator<double[]> BY_MEAN = new Comparator<double[]>()
+    {
+        @Override
+        public int compare(double[] o1, double[] o2)
+        {
+            return Double.compare(o1[0], o2[0]);
+        }
+    };
+
+    private final double compression;
+
+    // Merged centroids, sorted by mean
+    private double[] means;
+    private double[] weights;
+    private int numCentroids = 0;
+
+    // Points and centroids not yet merged
+    private final double[] bufferMeans;
+    private final double[] bufferWeights;
+    private int bufferSize = 0;
+
+    private double totalWeight = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest(double compression)
+    {
+        if (!(compression >= 10)) {
+            throw new IllegalArgumentException("Compression must be at least 10: " + compression);
+        }
+
+        this.compression = compression;
+        int maxCentroids = (int) Math.ceil(compression) + 1;
+        this.means = new double[maxCentroids];
+        this.weights = new double[maxCentroids];
+        this.bufferMeans = new double[maxCentroids * 5];
+        this.bufferWeights = new double[maxCentroids * 5];
+    }
+
+    public double getCompression()
+    {
+        return compression;
+    }
+
+    public double getTotalWeight()
+    {
+        return totalWeight;
+    }
+
+    public double getMin()
+    {
+        return min;
+    }
+
+    public double getMax()
+    {
+        return max;
+    }
+
+    public void add(double value)
+    {
+        add(value, 1);
+    }
+
+    public void add(double value, double weight)
+    {
+        if (Double.isNaN(value)) {
+            throw new IllegalArgumentException("Cannot add NaN to a t-digest");
+        }
+
+        if (bufferSize == bufferMeans.length) {
+            compress();
+        }
+
+        bufferMeans[bufferSize] = value;
+        bufferWeights[bufferSize] = weight;
+        ++bufferSize;
+        totalWeight += weight;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds all centroids of the given digest to this one
+     *
+     * @param other Digest to add, which may have a different compression
+     */
+    public void addAll(TDigest other)
+    {
+        other.compress();
+        for (int i = 0; i < other.numCentroids; ++i) {
+            add(other.means[i], other.weights[i]);
+        }
+
+        // The centroids lie within the extremes, so restore them
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Merges the given digests, e.g. those emitted for each tablet, into one with the compression of the first
+     *
+     * @param digests Digests to merge
+     * @return Merged digest, or null if there are none
+     */
+    public static TDigest union(Iterable<TDigest> digests)
+    {
+        TDigest union = null;
+        for (TDigest digest : digests) {
+            if (union == null) {
+                union = new TDigest(digest.compression);
+            }
+            union.addAll(digest);
+        }
+        return union;
+    }
+
+    private void compress()
+    {
+        if (bufferSize == 0) {
+            return;
+        }
+
+        double[][] centroids = new double[numCentroids + bufferSize][];
+        for (int i = 0; i < numCentroids; ++i) {
+            centroids[i] = new double[] {means[i], weights[i]};
+        }
+        for (int i = 0; i < bufferSize; ++i) {
+            centroids[numCentroids + i] = new double[] {bufferMeans[i], bufferWeights[i]};
+        }
+        Arrays.sort(centroids, BY_MEAN);
+        bufferSize = 0;
+
+        double[] newMeans = new double[means.length];
+        double[] newWeights = new double[weights.length];
+        int count = 0;
+
+        double weightSoFar = 0;
+        double mean = centroids[0][0];
+        double weight = centroids[0][1];
+        double limit = totalWeight * kToQ(qToK(0) + 1);
+        for (int i = 1; i < centroids.length; ++i) {
+            if (weightSoFar + weight + centroids[i][1] <= limit) {
+                weight += centroids[i][1];
+                mean += (centroids[i][0] - mean) * centroids[i][1] / weight;
+            }
+            else {
+                if (count == newMeans.length) {
+                    newMeans = Arrays.copyOf(newMeans, count * 2);
+                    newWeights = Arrays.copyOf(newWeights, count * 2);
+                }
+                newMeans[count] = mean;
+                newWeights[count] = weight;
+                ++count;
+
+                weightSoFar += weight;
+                limit = totalWeight * kToQ(qToK(weightSoFar / totalWeight) + 1);
+                mean = centroids[i][0];
+                weight = centroids[i][1];
+            }
+        }
+
+        if (count == newMeans.length) {
+            newMeans = Arrays.copyOf(newMeans, count + 1);
+            newWeights = Arrays.copyOf(newWeights, count + 1);
+        }
+        newMeans[count] = mean;
+        newWeights[count] = weight;
+
+        means = newMeans;
+        weights = newWeights;
+        numCentroids = count + 1;
+    }
+
+    // The arcsine scale function, which maps a quantile to an index so each centroid spans at most one unit of it
+    private double qToK(double q)
+    {
+        return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+    }
+
+    private double kToQ(double k)
+    {
+        if (k >= compression / 4) {
+            return 1;
+        }
+        return (Math.sin(k * 2 * Math.PI / compression) + 1) / 2;
+    }
+
+    /**
+     * Estimates the value at the given quantile
+     *
+     * @param q Quantile between 0 and 1
+     * @return Estimated value, or NaN if the digest is empty
+     */
+    public double quantile(double q)
+    {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + q);
+        }
+
+        compress();
+        if (numCentroids == 0) {
+            return Double.NaN;
+        }
+
+        if (numCentroids == 1) {
+            return min + q * (max - min);
+        }
+
+        // Each centroid is centered at the midpoint of its weight, and the extremes are at either end
+        double index = q * totalWeight;
+        double weightSoFar = weights[0] / 2;
+        if (index < weightSoFar) {
+            return min + (means[0] - min) * index / weightSoFar;
+        }
+
+        for (int i = 0; i < numCentroids - 1; ++i) {
+            double delta = (weights[i] + weights[i + 1]) / 2;
+            if (index < weightSoFar + delta) {
+                return means[i] + (means[i + 1] - means[i]) * (index - weightSoFar) / delta;
+            }
+            weightSoFar += delta;
+        }
+
+        double lastHalf = weights[numCentroids - 1] / 2;
+        return means[numCentroids - 1] + (max - means[numCentroids - 1]) * Math.min(1, (index - weightSoFar) / lastHalf);
+    }
+
+    /**
+     * Estimates the fraction of values less than or equal to the given value, i.e. the selectivity of a range predicate
+     *
+     * @param value Value to test
+     * @return Estimated fraction between 0 and 1, or NaN if the digest is empty
+     */
+    public double cdf(double value)
+    {
+        compress();
+        if (numCentroids == 0) {
+            return Double.NaN;
+        }
+
+        if (value < min) {
+            return 0;
+        }
+
+        if (value >= max) {
+            return 1;
+        }
+
+        if (value < means[0]) {
+            return weights[0] / 2 * (value - min) / (means[0] - min) / totalWeight;
+        }
+
+        double weightSoFar = weights[0] / 2;
+        for (int i = 0; i < numCentroids - 1; ++i) {
+            double delta = (weights[i] + weights[i + 1]) / 2;
+            if (value < means[i + 1]) {
+                return (weightSoFar + delta * (value - means[i]) / (means[i + 1] - means[i])) / totalWeight;
+            }
+            weightSoFar += delta;
+        }
+
+        double lastHalf = weights[numCentroids - 1] / 2;
+        return (weightSoFar + lastHalf * (value - means[numCentroids - 1]) / (max - means[numCentroids - 1])) / totalWeight;
+    }
+
+    public byte[] toBytes()
+            throws IOException
+    {
+        compress();
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        out.writeDouble(compression);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        WritableUtils.writeVInt(out, numCentroids);
+        for (int i = 0; i < numCentroids; ++i) {
+            out.writeDouble(means[i]);
+            out.writeDouble(weights[i]);
+        }
+
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    public static TDigest fromBytes(byte[] bytes)
+            throws IOException
+    {
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+
+        TDigest digest = new TDigest(in.readDouble());
+        double min = in.readDouble();
+        double max = in.readDouble();
+        int numCentroids = WritableUtils.readVInt(in);
+        for (int i = 0; i < numCentroids; ++i) {
+            digest.add(in.readDouble(), in.readDouble());
+        }
+        digest.min = min;
+        digest.max = max;
+        return digest;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("TDigest{compression=%s,totalWeight=%s,min=%s,max=%s}", compression, totalWeight, min, max);
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link TDigest} of the values of a single numeric column family/qualifier, encoded by the LongLexicoder
+ * (BIGINT, INTEGER, DATE, and TIMESTAMP columns) or the DoubleLexicoder (DOUBLE columns), for approximate percentiles
+ * and range selectivity estimates.
+ * <p>
+ * Like the {@link ValueSummingIterator}, the entire range is consumed and a single Key/Value pair is emitted whose Key
+ * is the last Key read and whose Value is the serialized digest. Use {@link TDigestBuilderIterator#merge} to merge the
+ * digests of all tablets on the client.
+ */
+public class TDigestBuilderIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    public enum Type
+    {
+        BIGINT, DOUBLE
+    }
+
+    protected static final String CF = "family";
+    protected static final String CQ = "qualifier";
+    protected static final String TYPE = "type";
+    protected static final String COMPRESSION = "compression";
+
+    private Text columnFamily;
+    private Text columnQualifier;
+    private Type type;
+    private double compression;
+
+    private Key topKey = null;
+    private Value topValue = null;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+        columnFamily = new Text(options.get(CF));
+        columnQualifier = new Text(options.get(CQ));
+        type = Type.valueOf(options.get(TYPE));
+        compression = options.containsKey(COMPRESSION) ? Double.parseDouble(options.get(COMPRESSION)) : TDigest.DEFAULT_COMPRESSION;
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        super.seek(range, columnFamilies, inclusive);
+        topKey = null;
+        topValue = null;
+
+        TDigest digest = new TDigest(compression);
+        Key lastKey = null;
+        while (getSource().hasTop()) {
+            Key key = getSource().getTopKey();
+            lastKey = new Key(key);
+            if (!key.isDeleted() && key.compareColumnFamily(columnFamily) == 0 && key.compareColumnQualifier(columnQualifier) == 0) {
+                byte[] value = getSource().getTopValue().get();
+                digest.add(type == Type.BIGINT ? Lexicoders.decodeLong(value) : Lexicoders.decodeDouble(value));
+            }
+            getSource().next();
+        }
+
+        // Key the result by the last Key read so the range is fully consumed from the client's point of view
+        if (lastKey != null) {
+            topKey = lastKey;
+            topValue = new Value(digest.toBytes());
+        }
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        topKey = null;
+        topValue = null;
+    }
+
+    @Override
+    public boolean hasTop()
+    {
+        return topKey != null;
+    }
+
+    @Override
+    public Key getTopKey()
+    {
+        return topKey;
+    }
+
+    @Override
+    public Value getTopValue()
+    {
+        return topValue;
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        TDigestBuilderIterator copy = new TDigestBuilderIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.columnFamily = new Text(this.columnFamily);
+        copy.columnQualifier = new Text(this.columnQualifier);
+        copy.type = this.type;
+        copy.compression = this.compression;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("tdigestbuilderiterator", "Emits a t-digest of the lexicoded numeric values of a single column family/qualifier for each range",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(CF, "column family to summarize, required").put(CQ, "column qualifier to summarize, required").put(TYPE, "<BIGINT|DOUBLE> type of the lexicoded values, required").put(COMPRESSION, "Compression of the digest, i.e. about the maximum number of centroids, default " + TDigest.DEFAULT_COMPRESSION).build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(CF, options);
+        checkNotNull(CQ, options);
+        checkNotNull(TYPE, options);
+
+        try {
+            Type.valueOf(options.get(TYPE));
+            if (options.containsKey(COMPRESSION) && !(Double.parseDouble(options.get(COMPRESSION)) >= 10)) {
+                throw new IllegalArgumentException("Option " + COMPRESSION + " must be at least 10");
+            }
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad t-digest option", e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier, Type type)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(CF, family);
+        opts.put(CQ, qualifier);
+        opts.put(TYPE, type.name());
+
+        return opts;
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier, Type type, double compression)
+    {
+        Map<String, String> opts = getProperties(family, qualifier, type);
+
+        opts.put(COMPRESSION, Double.toString(compression));
+
+        return opts;
+    }
+
+    /**
+     * Merges the digests emitted by this iterator for each tablet, e.g. from a BatchScanner, into one
+     *
+     * @param results Key/Value pairs emitted by this iterator
+     * @return Merged digest, or null if there were no results
+     * @throws IOException If a value is not properly encoded
+     */
+    public static TDigest merge(Iterable<Map.Entry<Key, Value>> results)
+            throws IOException
+    {
+        List<TDigest> digests = new ArrayList<>();
+        for (Map.Entry<Key, Value> entry : results) {
+            digests.add(TDigest.fromBytes(entry.getValue().get()));
+        }
+        return TDigest.union(digests);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("TDigestBuilderIterator{columnFamily=%s,columnQualifier=%s,type=%s,compression=%s}", columnFamily, columnQualifier, type, compression);
+    }
+}
@@ -0,0 +1,463 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.accumulo.core.iterators.conf.ColumnSet;
+import org.apache.commons.lang.StringUtils;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A major compaction iterator that downsamples raw time series cells older than a configured age into count/sum/min/max
+ * aggregates, one per row, column, visibility, and time bucket.
+ * <p>
+ * The Key timestamp of a raw cell is its sample time and its value is a number encoded by the LongLexicoder or the
+ * DoubleLexicoder, so the VersioningIterator must be removed from tables using this iterator. Buckets truncate the
+ * sample time in UTC to the second, minute, hour, or day, the same as the tss/tsm/tsh/tsd index families of TIMESTAMP
+ * columns, and each aggregate cell is keyed by the oldest timestamp it consumed, which lies within its bucket. The cutoff
+ * age is aligned to a bucket boundary so no bucket is split between raw and aggregated cells. Aggregates from earlier
+ * compactions are merged with any raw or aggregate cells in the same bucket, so partial compactions converge.
+ * <p>
+ * A cell that cannot be aggregated, such as a delete marker passed through by a partial major compaction or a value
+ * that is not a lexicoded number, ends the run of cells being aggregated. As the aggregate before it is keyed by the
+ * oldest cell of that run rather than by the start of the bucket, it still sorts before the cell, and the run after it
+ * becomes a second aggregate of the same bucket that a later compaction merges. The iterator does nothing outside of
+ * major compactions. Use {@link TimeSeriesRollupIterator#isAggregate} and {@link TimeSeriesRollupIterator#decodeAggregate}
+ * to read the aggregates.
+ */
+public class TimeSeriesRollupIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    public enum Granularity
+    {
+        SECOND(TimeUnit.SECONDS.toMillis(1)), MINUTE(TimeUnit.MINUTES.toMillis(1)), HOUR(TimeUnit.HOURS.toMillis(1)), DAY(TimeUnit.DAYS.toMillis(1));
+
+        private final long millis;
+
+        Granularity(long millis)
+        {
+            this.millis = millis;
+        }
+
+        public long truncate(long timestamp)
+        {
+            return timestamp - ((timestamp % millis) + millis) % millis;
+        }
+    }
+
+    public enum Type
+    {
+        BIGINT, DOUBLE
+    }
+
+    protected static final String COLUMNS = "columns";
+    protected static final String AGE = "age";
+    protected static final String GRANULARITY = "granularity";
+    protected static final String TYPE = "type";
+
+    // Not a valid first byte of the LongLexicoder or DoubleLexicoder, whose encodings start with a length of 0 to 16
+    private static final byte AGGREGATE_MARKER = (byte) 0xff;
+
+    private String encodedColumns;
+    private ColumnSet columns;
+    private long age;
+    private Granularity granularity;
+    private Type type;
+    private boolean rollup;
+    private long cutoff;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+
+    // The current bucket, also used to decode each cell
+    private long count;
+    private long longSum;
+    private long longMin;
+    private long longMax;
+    private double doubleSum;
+    private double doubleMin;
+    private double doubleMax;
+
+    private Key topKey = null;
+    private Value topValue = null;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+        setOptions(options.get(COLUMNS), Long.parseLong(options.get(AGE)), Granularity.valueOf(options.get(GRANULARITY)),
+                options.containsKey(TYPE) ? Type.valueOf(options.get(TYPE)) : Type.BIGINT);
+        rollup = env != null && env.getIteratorScope() == IteratorScope.majc;
+    }
+
+    private void setOptions(String encodedColumns, long age, Granularity granularity, Type type)
+    {
+        this.encodedColumns = encodedColumns;
+        this.columns = new ColumnSet(Arrays.asList(StringUtils.split(encodedColumns, ',')));
+        this.age = age;
+        this.granularity = granularity;
+        this.type = type;
+        this.cutoff = granularity.truncate(System.currentTimeMillis() - age);
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        super.seek(range, columnFamilies, inclusive);
+        findTop();
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        if (topKey == null) {
+            super.next();
+        }
+        findTop();
+    }
+
+    @Override
+    public boolean hasTop()
+    {
+        return topKey != null || super.hasTop();
+    }
+
+    @Override
+    public Key getTopKey()
+    {
+        return topKey != null ? topKey : super.getTopKey();
+    }
+
+    @Override
+    public Value getTopValue()
+    {
+        return topKey != null ? topValue : super.getTopValue();
+    }
+
+    /**
+     * Aggregates the bucket at the top of the source, if any, leaving the source at the first cell following it.
+     * Otherwise, the top of the source is passed through.
+     */
+    private void findTop()
+            throws IOException
+    {
+        topKey = null;
+        topValue = null;
+
+        if (!getSource().hasTop() || !isAggregated(getSource().getTopKey(), getSource().getTopValue())) {
+            return;
+        }
+
+        Key first = new Key(getSource().getTopKey());
+        long bucket = granularity.truncate(first.getTimestamp());
+        long oldest = first.getTimestamp();
+        count = 0;
+        while (getSource().hasTop()
+                && getSource().getTopKey().equals(first, PartialKey.ROW_COLFAM_COLQUAL_COLVIS)
+                && isAggregated(getSource().getTopKey(), getSource().getTopValue())
+                && granularity.truncate(getSource().getTopKey().getTimestamp()) == bucket) {
+            // Versions are sorted newest first, so the last cell consumed is the oldest
+            oldest = getSource().getTopKey().getTimestamp();
+            add(getSource().getTopValue().get());
+            getSource().next();
+        }
+
+        // Keyed by the oldest cell consumed rather than the start of the bucket, so the aggregate sorts before any cell
+        // of the bucket that ended the run
+        topKey = new Key(first.getRowData().toArray(), first.getColumnFamilyData().toArray(), first.getColumnQualifierData().toArray(), first.getColumnVisibilityData().toArray(), oldest);
+        topValue = encodeAggregate();
+    }
+
+    private boolean isAggregated(Key key, Value value)
+    {
+        if (!rollup || key.isDeleted() || key.getTimestamp() >= cutoff || !columns.contains(key)) {
+            return false;
+        }
+
+        // Cells that are neither aggregates of this type nor lexicoded numbers are passed through untouched
+        byte[] bytes = value.get();
+        if (bytes.length == 0) {
+            return false;
+        }
+
+        if (bytes[0] == AGGREGATE_MARKER) {
+            return bytes.length > 1 && bytes[1] == type.ordinal();
+        }
+
+        // The first byte counts the significant bytes that follow, less 16 when the leading 0xff bytes were trimmed
+        return bytes[0] >= 0 && bytes[0] <= 16 && (bytes[0] > 8 ? 16 - bytes[0] : bytes[0]) == bytes.length - 1;
+    }
+
+    private void add(byte[] bytes)
+            throws IOException
+    {
+        long cellCount;
+        long cellLongSum = 0;
+        long cellLongMin = 0;
+        long cellLongMax = 0;
+        double cellDoubleSum = 0;
+        double cellDoubleMin = 0;
+        double cellDoubleMax = 0;
+
+        if (bytes[0] == AGGREGATE_MARKER) {
+            DataInputBuffer in = new DataInputBuffer();
+            in.reset(bytes, 2, bytes.length - 2);
+            cellCount = WritableUtils.readVLong(in);
+            if (type == Type.BIGINT) {
+                cellLongSum = in.readLong();
+                cellLongMin = in.readLong();
+                cellLongMax = in.readLong();
+            }
+            else {
+                cellDoubleSum = in.readDouble();
+                cellDoubleMin = in.readDouble();
+                cellDoubleMax = in.readDouble();
+            }
+        }
+        else {
+            cellCount = 1;
+            if (type == Type.BIGINT) {
+                cellLongSum = Lexicoders.decodeLong(bytes);
+                cellLongMin = cellLongSum;
+                cellLongMax = cellLongSum;
+            }
+            else {
+                cellDoubleSum = Lexicoders.decodeDouble(bytes);
+                cellDoubleMin = cellDoubleSum;
+                cellDoubleMax = cellDoubleSum;
+            }
+        }
+
+        if (count == 0) {
+            longSum = cellLongSum;
+            longMin = cellLongMin;
+            longMax = cellLongMax;
+            doubleSum = cellDoubleSum;
+            doubleMin = cellDoubleMin;
+            doubleMax = cellDoubleMax;
+        }
+        else {
+            longSum += cellLongSum;
+            longMin = Math.min(longMin, cellLongMin);
+            longMax = Math.max(longMax, cellLongMax);
+            doubleSum += cellDoubleSum;
+            doubleMin = Math.min(doubleMin, cellDoubleMin);
+            doubleMax = Math.max(doubleMax, cellDoubleMax);
+        }
+        count += cellCount;
+    }
+
+    private Value encodeAggregate()
+            throws IOException
+    {
+        buffer.reset();
+        out.writeByte(AGGREGATE_MARKER);
+        out.writeByte(type.ordinal());
+        WritableUtils.writeVLong(out, count);
+        if (type == Type.BIGINT) {
+            out.writeLong(longSum);
+            out.writeLong(longMin);
+            out.writeLong(longMax);
+        }
+        else {
+            out.writeDouble(doubleSum);
+            out.writeDouble(doubleMin);
+            out.writeDouble(doubleMax);
+        }
+        out.flush();
+        return new Value(buffer.toByteArray());
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        TimeSeriesRollupIterator copy = new TimeSeriesRollupIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.setOptions(encodedColumns, age, granularity, type);
+        copy.rollup = rollup;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("timeseriesrollupiterator", "Replaces time series cells older than an age with count/sum/min/max aggregates per time bucket during major compactions",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(COLUMNS, "Comma-delimited <col fam>[:<col qual>] to roll up (escape non-alphanum chars using %<hex>), required").put(AGE, "Age in milliseconds beyond which cells are rolled up, required").put(GRANULARITY, "<SECOND|MINUTE|HOUR|DAY>, required").put(TYPE, "<BIGINT|DOUBLE> type of the lexicoded values, default BIGINT").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(COLUMNS, options);
+        checkNotNull(AGE, options);
+        checkNotNull(GRANULARITY, options);
+
+        for (String column : StringUtils.split(options.get(COLUMNS), ',')) {
+            if (!ColumnSet.isValidEncoding(column)) {
+                throw new IllegalArgumentException("Invalid encoding for column " + column);
+            }
+        }
+
+        try {
+            if (Long.parseLong(options.get(AGE)) < 0) {
+                throw new IllegalArgumentException("Option " + AGE + " must not be negative");
+            }
+
+            Granularity.valueOf(options.get(GRANULARITY));
+            if (options.containsKey(TYPE)) {
+                Type.valueOf(options.get(TYPE));
+            }
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad rollup option", e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    /**
+     * A convenience method for configuring the rollup
+     *
+     * @param is IteratorSetting object to configure
+     * @param columns Columns to roll up, with or without a qualifier
+     * @param age Age in milliseconds beyond which cells are rolled up
+     * @param granularity Size of each time bucket
+     * @param type Type of the lexicoded values
+     */
+    public static void setRollup(IteratorSetting is, List<IteratorSetting.Column> columns, long age, Granularity granularity, Type type)
+    {
+        List<String> encoded = new ArrayList<>(columns.size());
+        for (IteratorSetting.Column column : columns) {
+            encoded.add(ColumnSet.encodeColumns(column.getColumnFamily(), column.getColumnQualifier()));
+        }
+
+        is.addOption(COLUMNS, StringUtils.join(encoded, ','));
+        is.addOption(AGE, Long.toString(age));
+        is.addOption(GRANULARITY, granularity.name());
+        is.addOption(TYPE, type.name());
+    }
+
+    public static boolean isAggregate(Value value)
+    {
+        byte[] bytes = value.get();
+        return bytes.length > 1 && bytes[0] == AGGREGATE_MARKER;
+    }
+
+    /**
+     * Decodes an aggregate cell written by this iterator
+     *
+     * @param value Aggregate value
+     * @return Count, sum, min, and max of the bucket, where the last three are Longs or Doubles depending on the type
+     * @throws IOException If the value is not properly encoded
+     */
+    public static Aggregate decodeAggregate(Value value)
+            throws IOException
+    {
+        byte[] bytes = value.get();
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, 2, bytes.length - 2);
+        long count = WritableUtils.readVLong(in);
+        if (bytes[1] == Type.BIGINT.ordinal()) {
+            return new Aggregate(count, in.readLong(), in.readLong(), in.readLong());
+        }
+        return new Aggregate(count, in.readDouble(), in.readDouble(), in.readDouble());
+    }
+
+    public static class Aggregate
+    {
+        private final long count;
+        private final Number sum;
+        private final Number min;
+        private final Number max;
+
+        public Aggregate(long count, Number sum, Number min, Number max)
+        {
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public Number getSum()
+        {
+            return sum;
+        }
+
+        public Number getMin()
+        {
+            return min;
+        }
+
+        public Number getMax()
+        {
+            return max;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("Aggregate{count=%d,sum=%s,min=%s,max=%s}", count, sum, min, max);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("TimeSeriesRollupIterator{columns=%s,age=%d,granularity=%s,type=%s}", encodedColumns, age, granularity, type);
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Bytes;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A pass-through iterator that profiles the iterators below it, to be injected between any two iterators of a scan
+ * without rebuilding them. It counts the seeks, the Key/Value pairs and their bytes, and the nanoseconds spent in the
+ * seek and next calls of its source, which include all of the iterators and files beneath it. Placing one on either
+ * side of an iterator gives the keys in and out of that iterator and the time spent in it.
+ * <p>
+ * The metrics accumulate over every seek of the scan. Each time the source is exhausted at the end of a range they are
+ * logged at INFO with the configured name and, if the trailer option is set, emitted as one more Key/Value pair
+ * following the last one of the range, provided that Key is within the range. The column visibility of the trailer Key
+ * is suffixed with a marker, so a scan session resuming after the trailer does not emit another one. Only enable the
+ * trailer on the top of the stack, as the iterators above would otherwise read it as data, and use {@link TimingIterator#isMetrics} and {@link TimingIterator#decodeMetrics} to pick
+ * it out on the client.
+ */
+public class TimingIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    private static final Logger LOG = Logger.getLogger(TimingIterator.class);
+
+    protected static final String NAME = "name";
+    protected static final String TRAILER = "trailer";
+
+    private static final String METRICS_PREFIX = "\u0000TimingIterator\u0000";
+    private static final byte[] METRICS_PREFIX_BYTES = METRICS_PREFIX.getBytes(StandardCharsets.UTF_8);
+
+    private String name;
+    private boolean trailer;
+
+    private long seeks;
+    private long nextCalls;
+    private long keys;
+    private long bytes;
+    private long seekNanos;
+    private long nextNanos;
+
+    private Range range;
+    private Key lastKey = null;
+    private boolean reported;
+    private Key topKey = null;
+    private Value topValue = null;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+        name = options.containsKey(NAME) ? options.get(NAME) : "timing";
+        trailer = Boolean.parseBoolean(options.get(TRAILER));
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        this.range = range;
+        ++seeks;
+        lastKey = null;
+        topKey = null;
+
+        // A scan session resuming after the trailer has already reported this range
+        reported = range.getStartKey() != null && isTrailer(range.getStartKey());
+
+        long start = System.nanoTime();
+        super.seek(range, columnFamilies, inclusive);
+        seekNanos += System.nanoTime() - start;
+        count();
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        if (topKey != null) {
+            // The trailer was the last Key/Value pair
+            topKey = null;
+            return;
+        }
+
+        long start = System.nanoTime();
+        super.next();
+        nextNanos += System.nanoTime() - start;
+        ++nextCalls;
+        count();
+    }
+
+    private void count()
+    {
+        if (getSource().hasTop()) {
+            ++keys;
+            bytes += getSource().getTopKey().getSize() + getSource().getTopValue().getSize();
+            if (trailer) {
+                lastKey = new Key(getSource().getTopKey());
+            }
+        }
+        else if (!reported) {
+            reported = true;
+            LOG.info(String.format("%s: %s", name, metricsString()));
+            Key trailerKey = trailerKey();
+            if (trailer && range.contains(trailerKey)) {
+                topKey = trailerKey;
+                topValue = new Value((METRICS_PREFIX + metricsString()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Gets the Key of the trailer, which sorts after the last Key of the range, or after the start of an empty range, as
+     * its column visibility is suffixed with the marker
+     */
+    private Key trailerKey()
+    {
+        Key key = lastKey != null ? lastKey : range.getStartKey();
+        if (key == null) {
+            return new Key(new byte[0], new byte[0], new byte[0], METRICS_PREFIX_BYTES, Long.MAX_VALUE);
+        }
+
+        return new Key(key.getRowData().toArray(), key.getColumnFamilyData().toArray(), key.getColumnQualifierData().toArray(),
+                Bytes.concat(key.getColumnVisibilityData().toArray(), METRICS_PREFIX_BYTES), key.getTimestamp());
+    }
+
+    private static boolean isTrailer(Key key)
+    {
+        ByteSequence visibility = key.getColumnVisibilityData();
+        int offset = visibility.length() - METRICS_PREFIX_BYTES.length;
+        return offset >= 0 && visibility.subSequence(offset, visibility.length()).equals(new ArrayByteSequence(METRICS_PREFIX_BYTES));
+    }
+
+    private String metricsString()
+    {
+        return String.format("seeks=%d,nextCalls=%d,keys=%d,bytes=%d,seekNanos=%d,nextNanos=%d", seeks, nextCalls, keys, bytes, seekNanos, nextNanos);
+    }
+
+    @Override
+    public boolean hasTop()
+    {
+        return topKey != null || super.hasTop();
+    }
+
+    @Override
+    public Key getTopKey()
+    {
+        return topKey != null ? topKey : super.getTopKey();
+    }
+
+    @Override
+    public Value getTopValue()
+    {
+        return topKey != null ? topValue : super.getTopValue();
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        TimingIterator copy = new TimingIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.name = name;
+        copy.trailer = trailer;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("timingiterator", "Pass-through iterator that logs the seeks, keys, bytes, and time spent in the iterators below it",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(NAME, "Name of this iterator in the log, default timing").put(TRAILER, "True to emit the metrics as a trailing Key/Value pair, default false").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        if (options.containsKey(TRAILER) && !options.get(TRAILER).equalsIgnoreCase("true") && !options.get(TRAILER).equalsIgnoreCase("false")) {
+            throw new IllegalArgumentException("Option " + TRAILER + " must be true or false: " + options.get(TRAILER));
+        }
+
+        return true;
+    }
+
+    /**
+     * A convenience method for configuring the timing iterator
+     *
+     * @param is IteratorSetting object to configure
+     * @param name Name of this iterator in the log
+     * @param trailer True to emit the metrics as a trailing Key/Value pair
+     */
+    public static void setOptions(IteratorSetting is, String name, boolean trailer)
+    {
+        is.addOption(NAME, name);
+        is.addOption(TRAILER, Boolean.toString(trailer));
+    }
+
+    public static boolean isMetrics(Value value)
+    {
+        byte[] bytes = value.get();
+        if (bytes.length < METRICS_PREFIX_BYTES.length) {
+            return false;
+        }
+
+        for (int i = 0; i < METRICS_PREFIX_BYTES.length; ++i) {
+            if (bytes[i] != METRICS_PREFIX_BYTES[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the metrics of a trailing Key/Value pair
+     *
+     * @param value Value of the trailer
+     * @return Metric name to value, in the order seeks, nextCalls, keys, bytes, seekNanos, and nextNanos
+     */
+    public static Map<String, Long> decodeMetrics(Value value)
+    {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        for (String metric : StringUtils.split(value.toString().substring(METRICS_PREFIX.length()), ',')) {
+            String[] tokens = StringUtils.split(metric, '=');
+            metrics.put(tokens[0], Long.parseLong(tokens[1]));
+        }
+        return metrics;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("TimingIterator{name=%s,trailer=%s}", name, trailer);
+    }
+}
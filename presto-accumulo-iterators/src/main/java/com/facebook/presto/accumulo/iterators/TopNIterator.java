@@ -0,0 +1,339 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.accumulo.core.iterators.user.WholeRowIterator;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+
+/**
+ * Pushes down ORDER BY ... LIMIT by keeping a bounded heap of the top N rows of each seeked range, ordered by the
+ * value of a single column family/qualifier. Values are compared as unsigned bytes, which is the natural order of
+ * lexicoded values, with ties broken by row ID. Rows without the column are not candidates.
+ * <p>
+ * Like the {@link ValueSummingIterator}, the entire range is consumed before anything is emitted, and a single
+ * Key/Value pair is returned whose Key is the last Key read, so a re-established scan session does not re-emit it.
+ * The Value holds the candidates in sorted order, each as its row ID, sort value, and whole row encoded by the
+ * {@link WholeRowIterator}. Configure row filters such as the {@link AndFilter} at a lower priority so rows are
+ * filtered before they are ranked. Use {@link TopNIterator#merge} to combine the results of all tablets on the client.
+ */
+public class TopNIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    protected static final String CF = "family";
+    protected static final String CQ = "qualifier";
+    protected static final String LIMIT = "limit";
+    protected static final String DESCENDING = "descending";
+
+    private Text columnFamily;
+    private Text columnQualifier;
+    private int limit;
+    private boolean descending;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+
+    private Key topKey = null;
+    private Value topValue = null;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+        columnFamily = new Text(options.get(CF));
+        columnQualifier = new Text(options.get(CQ));
+        limit = Integer.parseInt(options.get(LIMIT));
+        descending = Boolean.parseBoolean(options.get(DESCENDING));
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        super.seek(range, columnFamilies, inclusive);
+        topKey = null;
+        topValue = null;
+
+        // Worst candidate at the head so it can be evicted
+        Comparator<Candidate> comparator = Collections.reverseOrder(getComparator(descending));
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(limit + 1, comparator);
+
+        Key lastKey = null;
+        Text currentRow = new Text();
+        List<Key> keys = new ArrayList<>();
+        List<Value> values = new ArrayList<>();
+        while (getSource().hasTop()) {
+            getSource().getTopKey().getRow(currentRow);
+            keys.clear();
+            values.clear();
+
+            byte[] sortValue = null;
+            while (getSource().hasTop() && getSource().getTopKey().compareRow(currentRow) == 0) {
+                Key key = getSource().getTopKey();
+                lastKey = new Key(key);
+                if (!key.isDeleted()) {
+                    Value value = new Value(getSource().getTopValue());
+                    keys.add(lastKey);
+                    values.add(value);
+
+                    if (sortValue == null && key.compareColumnFamily(columnFamily) == 0 && key.compareColumnQualifier(columnQualifier) == 0) {
+                        sortValue = value.get();
+                    }
+                }
+                getSource().next();
+            }
+
+            if (sortValue == null) {
+                continue;
+            }
+
+            Candidate candidate = new Candidate(currentRow.copyBytes(), sortValue, null);
+            if (heap.size() < limit || comparator.compare(candidate, heap.peek()) > 0) {
+                heap.add(new Candidate(candidate.row, candidate.value, WholeRowIterator.encodeRow(keys, values).get()));
+                if (heap.size() > limit) {
+                    heap.poll();
+                }
+            }
+        }
+
+        // Key the result by the last Key read so the range is fully consumed from the client's point of view
+        if (lastKey != null) {
+            List<Candidate> candidates = new ArrayList<>(heap);
+            Collections.sort(candidates, getComparator(descending));
+            topKey = lastKey;
+            topValue = encodeCandidates(candidates);
+        }
+    }
+
+    private Value encodeCandidates(List<Candidate> candidates)
+            throws IOException
+    {
+        buffer.reset();
+        WritableUtils.writeVInt(out, candidates.size());
+        for (Candidate candidate : candidates) {
+            writeBytes(candidate.row);
+            writeBytes(candidate.value);
+            writeBytes(candidate.encodedRow);
+        }
+        out.flush();
+        return new Value(buffer.toByteArray());
+    }
+
+    private void writeBytes(byte[] bytes)
+            throws IOException
+    {
+        WritableUtils.writeVInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        topKey = null;
+        topValue = null;
+    }
+
+    @Override
+    public boolean hasTop()
+    {
+        return topKey != null;
+    }
+
+    @Override
+    public Key getTopKey()
+    {
+        return topKey;
+    }
+
+    @Override
+    public Value getTopValue()
+    {
+        return topValue;
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        TopNIterator copy = new TopNIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.columnFamily = new Text(this.columnFamily);
+        copy.columnQualifier = new Text(this.columnQualifier);
+        copy.limit = this.limit;
+        copy.descending = this.descending;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("topniterator", "Emits the top N rows of each range ordered by the value of a single column family/qualifier",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(CF, "column family to order by, required").put(CQ, "column qualifier to order by, required").put(LIMIT, "Maximum number of rows to return, required").put(DESCENDING, "True to return the largest values, default false").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(CF, options);
+        checkNotNull(CQ, options);
+        checkNotNull(LIMIT, options);
+
+        try {
+            if (Integer.parseInt(options.get(LIMIT)) <= 0) {
+                throw new IllegalArgumentException("Option " + LIMIT + " must be positive");
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + LIMIT + " is not an integer: " + options.get(LIMIT), e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    public static Map<String, String> getProperties(String family, String qualifier, int limit, boolean descending)
+    {
+        Map<String, String> opts = new HashMap<>();
+
+        opts.put(CF, family);
+        opts.put(CQ, qualifier);
+        opts.put(LIMIT, Integer.toString(limit));
+        opts.put(DESCENDING, Boolean.toString(descending));
+
+        return opts;
+    }
+
+    /**
+     * Merges the per-range results of this iterator, e.g. from a BatchScanner, into the overall top N rows
+     *
+     * @param results Key/Value pairs emitted by this iterator
+     * @param limit Maximum number of rows to return
+     * @param descending True if the iterator was configured to return the largest values
+     * @return Whole rows, in order, as decoded by {@link WholeRowIterator#decodeRow}
+     * @throws IOException If a value is not properly encoded
+     */
+    public static List<SortedMap<Key, Value>> merge(Iterable<Map.Entry<Key, Value>> results, int limit, boolean descending)
+            throws IOException
+    {
+        List<Candidate> candidates = new ArrayList<>();
+        for (Map.Entry<Key, Value> entry : results) {
+            candidates.addAll(decodeCandidates(entry.getValue()));
+        }
+
+        Collections.sort(candidates, getComparator(descending));
+
+        List<SortedMap<Key, Value>> rows = new ArrayList<>();
+        for (Candidate candidate : candidates.subList(0, Math.min(limit, candidates.size()))) {
+            rows.add(WholeRowIterator.decodeRow(new Key(new Text(candidate.row)), new Value(candidate.encodedRow)));
+        }
+        return rows;
+    }
+
+    private static List<Candidate> decodeCandidates(Value value)
+            throws IOException
+    {
+        byte[] bytes = value.get();
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+
+        int numCandidates = WritableUtils.readVInt(in);
+        List<Candidate> candidates = new ArrayList<>(numCandidates);
+        for (int i = 0; i < numCandidates; ++i) {
+            candidates.add(new Candidate(readBytes(in), readBytes(in), readBytes(in)));
+        }
+        return candidates;
+    }
+
+    private static byte[] readBytes(DataInputBuffer in)
+            throws IOException
+    {
+        byte[] bytes = new byte[WritableUtils.readVInt(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static Comparator<Candidate> getComparator(final boolean descending)
+    {
+        return new Comparator<Candidate>()
+        {
+            @Override
+            public int compare(Candidate o1, Candidate o2)
+            {
+                int compare = WritableComparator.compareBytes(o1.value, 0, o1.value.length, o2.value, 0, o2.value.length);
+                if (compare == 0) {
+                    return WritableComparator.compareBytes(o1.row, 0, o1.row.length, o2.row, 0, o2.row.length);
+                }
+                return descending ? -compare : compare;
+            }
+        };
+    }
+
+    private static class Candidate
+    {
+        private final byte[] row;
+        private final byte[] value;
+        private final byte[] encodedRow;
+
+        public Candidate(byte[] row, byte[] value, byte[] encodedRow)
+        {
+            this.row = row;
+            this.value = value;
+            this.encodedRow = encodedRow;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("TopNIterator{columnFamily=%s,columnQualifier=%s,limit=%d,descending=%s}", columnFamily, columnQualifier, limit, descending);
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.accumulo.core.iterators.conf.ColumnSet;
+import org.apache.accumulo.core.iterators.conf.ColumnToClassMapping;
+import org.apache.accumulo.core.util.Pair;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * An iterator that truncates the values of the configured columns to a maximum length, for previewing rows with large
+ * text or blob cells. Each value of a configured column is emitted as a flag byte, then, if the value was truncated,
+ * its original length as a vlong, then at most the maximum length of bytes. Values of other columns are unchanged.
+ * Use {@link TruncatingIterator#isTruncated}, {@link TruncatingIterator#getOriginalLength}, and
+ * {@link TruncatingIterator#getBytes} to decode them on the client.
+ */
+public class TruncatingIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    private static final byte COMPLETE = 0;
+    private static final byte TRUNCATED = 1;
+
+    public static class LengthSet
+            extends ColumnToClassMapping<Integer>
+    {
+        public LengthSet(Map<String, String> objectStrings)
+        {
+            super();
+
+            for (Entry<String, String> entry : objectStrings.entrySet()) {
+                if (entry.getKey().isEmpty() || entry.getValue().isEmpty()) {
+                    continue;
+                }
+
+                String column = entry.getKey();
+                int length = Integer.parseInt(entry.getValue());
+                if (length < 0) {
+                    throw new IllegalArgumentException("Maximum length of column " + column + " must not be negative");
+                }
+
+                Pair<Text, Text> colPair = ColumnSet.decodeColumns(column);
+
+                if (colPair.getSecond() == null) {
+                    addObject(colPair.getFirst(), length);
+                }
+                else {
+                    addObject(colPair.getFirst(), colPair.getSecond(), length);
+                }
+            }
+        }
+    }
+
+    private LengthSet lengthSet;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private Value topValue = null;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        this.lengthSet = new LengthSet(options);
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        super.seek(range, columnFamilies, inclusive);
+        topValue = null;
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        super.next();
+        topValue = null;
+    }
+
+    @Override
+    public Value getTopValue()
+    {
+        if (topValue == null) {
+            Integer maxLength = lengthSet.getObject(getTopKey());
+            topValue = maxLength == null ? super.getTopValue() : truncate(super.getTopValue().get(), maxLength);
+        }
+        return topValue;
+    }
+
+    private Value truncate(byte[] value, int maxLength)
+    {
+        try {
+            buffer.reset();
+            if (value.length > maxLength) {
+                out.writeByte(TRUNCATED);
+                WritableUtils.writeVLong(out, value.length);
+                out.write(value, 0, maxLength);
+            }
+            else {
+                out.writeByte(COMPLETE);
+                out.write(value);
+            }
+            out.flush();
+            return new Value(buffer.toByteArray());
+        }
+        catch (IOException e) {
+            // should not occur, as the stream is backed by a byte array
+            throw new IllegalStateException("Failed to truncate value", e);
+        }
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        TruncatingIterator copy = new TruncatingIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.lengthSet = lengthSet;
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        IteratorOptions io = new IteratorOptions("truncatingiterator", "TruncatingIterator truncates the values of each configured column to a maximum length, flagging the values that were truncated", null, null);
+        io.addUnnamedOption("<col fam>[:<col qual>] <Integer> (escape non-alphanum chars using %<hex>)");
+        return io;
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        try {
+            this.lengthSet = new LengthSet(options);
+        }
+        catch (Exception e) {
+            throw new IllegalArgumentException("Bad length options: " + e.getMessage(), e);
+        }
+
+        return true;
+    }
+
+    /**
+     * A convenience method for adding or changing the maximum length of a column
+     *
+     * @param is IteratorSetting object to configure
+     * @param column column to encode as a parameter name
+     * @param maxLength Maximum number of bytes of each value
+     */
+    public static void addMaxLength(IteratorSetting is, IteratorSetting.Column column, int maxLength)
+    {
+        is.addOption(ColumnSet.encodeColumns(column.getFirst(), column.getSecond()), Integer.toString(maxLength));
+    }
+
+    /**
+     * A convenience method for removing the maximum length of a column
+     *
+     * @param is IteratorSetting object to configure
+     * @param column column to encode as a parameter name
+     */
+    public static void removeMaxLength(IteratorSetting is, IteratorSetting.Column column)
+    {
+        is.removeOption(ColumnSet.encodeColumns(column.getFirst(), column.getSecond()));
+    }
+
+    public static boolean isTruncated(Value value)
+    {
+        return value.get()[0] == TRUNCATED;
+    }
+
+    /**
+     * Gets the length of a value emitted by this iterator before it was truncated
+     *
+     * @param value Value of a configured column
+     * @return Original length of the value
+     * @throws IOException If the value is not properly encoded
+     */
+    public static long getOriginalLength(Value value)
+            throws IOException
+    {
+        byte[] bytes = value.get();
+        if (bytes[0] == COMPLETE) {
+            return bytes.length - 1;
+        }
+
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, 1, bytes.length - 1);
+        return WritableUtils.readVLong(in);
+    }
+
+    /**
+     * Gets the possibly truncated bytes of a value emitted by this iterator
+     *
+     * @param value Value of a configured column
+     * @return Leading bytes of the original value
+     */
+    public static byte[] getBytes(Value value)
+    {
+        byte[] bytes = value.get();
+        int offset = 1;
+        if (bytes[0] == TRUNCATED) {
+            offset += WritableUtils.decodeVIntSize(bytes[1]);
+        }
+        return Arrays.copyOfRange(bytes, offset, bytes.length);
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * A compact summary of a set of column values used for semi-join reduction, built by the
+ * {@link BloomFilterBuilderIterator} and tested by the {@link BloomMembershipFilter}.
+ * <p>
+ * Small sets are kept as the exact sorted values, and sets larger than a maximum number of values as a Bloom filter.
+ * The Bloom filter parameters are carried by both forms so that any two summaries built with the same options can
+ * be combined with {@link ValueSetSummary#union}.
+ */
+public final class ValueSetSummary
+{
+    private static final byte SORTED_VALUES = 0;
+    private static final byte BLOOM_FILTER = 1;
+
+    private final int maxValues;
+    private final int vectorSize;
+    private final int numHashes;
+
+    // Exactly one of these is set
+    private SortedSet<ByteSequence> values = new TreeSet<>();
+    private BloomFilter bloomFilter = null;
+
+    public ValueSetSummary(int maxValues, int vectorSize, int numHashes)
+    {
+        this.maxValues = maxValues;
+        this.vectorSize = vectorSize;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     * Creates an empty summary whose Bloom filter is sized for the expected number of values and false positive rate
+     *
+     * @param maxValues Maximum number of values to keep exactly before switching to a Bloom filter
+     * @param expectedValues Expected number of distinct values
+     * @param falsePositiveRate Desired false positive rate of the Bloom filter
+     * @return New summary
+     */
+    public static ValueSetSummary create(int maxValues, long expectedValues, double falsePositiveRate)
+    {
+        long vectorSize = (long) Math.ceil(-expectedValues * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        if (vectorSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter for " + expectedValues + " values at rate " + falsePositiveRate + " is too large");
+        }
+
+        int numHashes = (int) Math.max(1, Math.round((double) vectorSize / expectedValues * Math.log(2)));
+        return new ValueSetSummary(maxValues, (int) Math.max(1, vectorSize), numHashes);
+    }
+
+    public boolean isBloomFilter()
+    {
+        return bloomFilter != null;
+    }
+
+    /**
+     * Adds a value to the summary, switching to a Bloom filter if the maximum number of exact values is exceeded
+     *
+     * @param value Value to add, which is copied
+     */
+    public void add(ByteSequence value)
+    {
+        if (bloomFilter != null) {
+            bloomFilter.add(new Key(value.toArray()));
+        }
+        else if (values.add(new ArrayByteSequence(value.toArray())) && values.size() > maxValues) {
+            toBloomFilter();
+        }
+    }
+
+    private void toBloomFilter()
+    {
+        bloomFilter = new BloomFilter(vectorSize, numHashes, Hash.MURMUR_HASH);
+        for (ByteSequence value : values) {
+            bloomFilter.add(new Key(value.toArray()));
+        }
+        values = null;
+    }
+
+    /**
+     * Tests if the given value may be in the set. False positives are only possible when the summary is a Bloom filter.
+     *
+     * @param value Value to test
+     * @return True if the value may be in the set, false if it definitely is not
+     */
+    public boolean mightContain(ByteSequence value)
+    {
+        if (bloomFilter != null) {
+            return bloomFilter.membershipTest(new Key(value.toArray()));
+        }
+        return values.contains(value);
+    }
+
+    /**
+     * Adds all values of the given summary to this one
+     *
+     * @param other Summary built with the same options
+     */
+    public void addAll(ValueSetSummary other)
+    {
+        if (other.maxValues != maxValues || other.vectorSize != vectorSize || other.numHashes != numHashes) {
+            throw new IllegalArgumentException("Summaries were built with different options and cannot be combined");
+        }
+
+        if (other.bloomFilter == null) {
+            for (ByteSequence value : other.values) {
+                add(value);
+            }
+        }
+        else {
+            if (bloomFilter == null) {
+                toBloomFilter();
+            }
+            bloomFilter.or(other.bloomFilter);
+        }
+    }
+
+    /**
+     * ORs the given summaries, e.g. those emitted for each tablet, into one
+     *
+     * @param summaries Summaries built with the same options
+     * @return Union of the summaries, or null if there are none
+     */
+    public static ValueSetSummary union(Iterable<ValueSetSummary> summaries)
+    {
+        ValueSetSummary union = null;
+        for (ValueSetSummary summary : summaries) {
+            if (union == null) {
+                union = new ValueSetSummary(summary.maxValues, summary.vectorSize, summary.numHashes);
+            }
+            union.addAll(summary);
+        }
+        return union;
+    }
+
+    public byte[] toBytes()
+            throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+
+        out.writeByte(bloomFilter == null ? SORTED_VALUES : BLOOM_FILTER);
+        WritableUtils.writeVInt(out, maxValues);
+        WritableUtils.writeVInt(out, vectorSize);
+        WritableUtils.writeVInt(out, numHashes);
+
+        if (bloomFilter == null) {
+            WritableUtils.writeVInt(out, values.size());
+            for (ByteSequence value : values) {
+                WritableUtils.writeVInt(out, value.length());
+                out.write(value.getBackingArray(), value.offset(), value.length());
+            }
+        }
+        else {
+            bloomFilter.write(out);
+        }
+
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    public static ValueSetSummary fromBytes(byte[] bytes)
+            throws IOException
+    {
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+
+        byte type = in.readByte();
+        ValueSetSummary summary = new ValueSetSummary(WritableUtils.readVInt(in), WritableUtils.readVInt(in), WritableUtils.readVInt(in));
+        switch (type) {
+            case SORTED_VALUES:
+                int numValues = WritableUtils.readVInt(in);
+                for (int i = 0; i < numValues; ++i) {
+                    byte[] value = new byte[WritableUtils.readVInt(in)];
+                    in.readFully(value);
+                    summary.values.add(new ArrayByteSequence(value));
+                }
+                break;
+            case BLOOM_FILTER:
+                summary.values = null;
+                summary.bloomFilter = new BloomFilter();
+                summary.bloomFilter.readFields(in);
+                break;
+            default:
+                throw new IOException("Unknown summary type " + type);
+        }
+        return summary;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("ValueSetSummary{bloomFilter=%s,numValues=%s,vectorSize=%d,numHashes=%d}", isBloomFilter(), values == null ? "" : values.size(), vectorSize, numHashes);
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.IteratorUtil;
+import org.apache.accumulo.core.iterators.OptionDescriber;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An iterator that keeps, for each row and column, the latest N versions whose timestamps fall within a window of time,
+ * combining the limits of the VersioningIterator and the {@link ColumnTimestampFilter} in a single pass.
+ * <p>
+ * The window ends at the optional as-of timestamp, or when the iterator is initialized, and versions newer than the
+ * as-of timestamp are skipped, so a scan sees the column as it was at that time. As versions are sorted newest first,
+ * the remaining versions of a column are skipped as soon as one is older than the window or N versions are emitted,
+ * moving to the next column with a few calls to next before falling back to a seek.
+ */
+public class VersionWindowIterator
+        extends WrappingIterator
+        implements OptionDescriber
+{
+    protected static final String MAX_VERSIONS = "maxVersions";
+    protected static final String MAX_AGE = "maxAge";
+    protected static final String AS_OF = "asOf";
+
+    // Number of calls to next before seeking past versions that are skipped
+    private static final int MAX_NEXT_CALLS = 10;
+
+    private int maxVersions;
+    private long maxAge;
+    private Long asOf;
+    private long end;
+    private long start;
+
+    private Range range;
+    private Collection<ByteSequence> columnFamilies;
+    private boolean inclusive;
+
+    private final Key column = new Key();
+    private boolean hasColumn = false;
+    private int numVersions = 0;
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        super.init(source, options, env);
+        validateOptions(options);
+        setOptions(Integer.parseInt(options.get(MAX_VERSIONS)), Long.parseLong(options.get(MAX_AGE)),
+                options.containsKey(AS_OF) ? Long.valueOf(options.get(AS_OF)) : null);
+    }
+
+    private void setOptions(int maxVersions, long maxAge, Long asOf)
+    {
+        this.maxVersions = maxVersions;
+        this.maxAge = maxAge;
+        this.asOf = asOf;
+        this.end = asOf != null ? asOf : System.currentTimeMillis();
+        this.start = end - maxAge;
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        // Seek to the first version of the column, so a re-seek into the middle of a column, e.g. when a scan resumes,
+        // counts the versions of the column that were already emitted
+        Range seekRange = IteratorUtil.maximizeStartKeyTimeStamp(range);
+        this.range = seekRange;
+        this.columnFamilies = columnFamilies;
+        this.inclusive = inclusive;
+        hasColumn = false;
+        super.seek(seekRange, columnFamilies, inclusive);
+        findTop();
+
+        // Then skip the versions before the start of the original range
+        if (range.getStartKey() != null) {
+            while (hasTop() && range.beforeStartKey(getTopKey())) {
+                next();
+            }
+        }
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        super.next();
+        findTop();
+    }
+
+    private void findTop()
+            throws IOException
+    {
+        while (getSource().hasTop()) {
+            Key key = getSource().getTopKey();
+            if (!hasColumn || !key.equals(column, PartialKey.ROW_COLFAM_COLQUAL_COLVIS)) {
+                column.set(key);
+                hasColumn = true;
+                numVersions = 0;
+            }
+
+            if (key.getTimestamp() > end) {
+                // Skip to the first version of this column as of the end of the window
+                skipTo(new Key(key.getRowData().toArray(), key.getColumnFamilyData().toArray(), key.getColumnQualifierData().toArray(), key.getColumnVisibilityData().toArray(), end));
+            }
+            else if (key.getTimestamp() <= start || numVersions >= maxVersions) {
+                skipTo(key.followingKey(PartialKey.ROW_COLFAM_COLQUAL_COLVIS));
+            }
+            else {
+                ++numVersions;
+                return;
+            }
+        }
+    }
+
+    private void skipTo(Key target)
+            throws IOException
+    {
+        for (int i = 0; i < MAX_NEXT_CALLS; ++i) {
+            getSource().next();
+            if (!getSource().hasTop() || getSource().getTopKey().compareTo(target) >= 0) {
+                return;
+            }
+        }
+
+        if (range.afterEndKey(target)) {
+            // Seek to an empty range to exhaust the source
+            getSource().seek(new Range(range.getEndKey(), true, range.getEndKey(), false), columnFamilies, inclusive);
+        }
+        else {
+            getSource().seek(new Range(target, true, range.getEndKey(), range.isEndKeyInclusive()), columnFamilies, inclusive);
+        }
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        VersionWindowIterator copy = new VersionWindowIterator();
+        copy.setSource(getSource().deepCopy(env));
+        copy.setOptions(maxVersions, maxAge, asOf);
+        return copy;
+    }
+
+    @Override
+    public IteratorOptions describeOptions()
+    {
+        return new IteratorOptions("versionwindowiterator", "Keeps the latest N versions of each column within a window of time",
+                // @formatter:off
+        ImmutableMap.<String, String>builder().put(MAX_VERSIONS, "Maximum number of versions of each column, required").put(MAX_AGE, "Length of the window in milliseconds, required").put(AS_OF, "Timestamp of the end of the window, default the time the iterator is initialized").build(),
+        // @formatter:on
+                null);
+    }
+
+    @Override
+    public boolean validateOptions(Map<String, String> options)
+    {
+        checkNotNull(MAX_VERSIONS, options);
+        checkNotNull(MAX_AGE, options);
+
+        try {
+            if (Integer.parseInt(options.get(MAX_VERSIONS)) < 1) {
+                throw new IllegalArgumentException("Option " + MAX_VERSIONS + " must be at least 1");
+            }
+
+            if (Long.parseLong(options.get(MAX_AGE)) < 0) {
+                throw new IllegalArgumentException("Option " + MAX_AGE + " must not be negative");
+            }
+
+            if (options.containsKey(AS_OF)) {
+                Long.parseLong(options.get(AS_OF));
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad version window option", e);
+        }
+
+        return true;
+    }
+
+    private void checkNotNull(String opt, Map<String, String> options)
+    {
+        if (options.get(opt) == null) {
+            throw new IllegalArgumentException("Option " + opt + " is required");
+        }
+    }
+
+    /**
+     * A convenience method for configuring a window ending when the iterator is initialized
+     *
+     * @param is IteratorSetting object to configure
+     * @param maxVersions Maximum number of versions of each column
+     * @param maxAge Length of the window in milliseconds
+     */
+    public static void setWindow(IteratorSetting is, int maxVersions, long maxAge)
+    {
+        is.addOption(MAX_VERSIONS, Integer.toString(maxVersions));
+        is.addOption(MAX_AGE, Long.toString(maxAge));
+    }
+
+    /**
+     * A convenience method for configuring a window ending at the given timestamp
+     *
+     * @param is IteratorSetting object to configure
+     * @param maxVersions Maximum number of versions of each column
+     * @param maxAge Length of the window in milliseconds
+     * @param asOf Timestamp of the end of the window, inclusive
+     */
+    public static void setWindow(IteratorSetting is, int maxVersions, long maxAge, long asOf)
+    {
+        setWindow(is, maxVersions, maxAge);
+        is.addOption(AS_OF, Long.toString(asOf));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("VersionWindowIterator{maxVersions=%d,maxAge=%d,asOf=%s}", maxVersions, maxAge, asOf);
+    }
+}
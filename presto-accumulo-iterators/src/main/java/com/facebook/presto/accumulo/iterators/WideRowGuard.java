@@ -0,0 +1,247 @@
+/**
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.Text;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Limits on the number of cells and bytes of a single row, shared by the row iterators so one pathological row cannot
+ * stall a scan or exhaust the heap of a tablet server. What happens to a row over the limits depends on the policy:
+ * <ul>
+ * <li>STREAM evaluates the row past the limits, one cell at a time, and only counts it as a wide row</li>
+ * <li>SKIP drops the row as soon as it goes over the limits, counting and logging it</li>
+ * <li>CHUNK emits the row in pieces that are each within the limits, for iterators that encode rows</li>
+ * </ul>
+ * The {@link AndFilter} and {@link OrFilter} evaluate their filters over this guard, treating CHUNK as STREAM, and the
+ * {@link BoundedWholeRowIterator} replaces the WholeRowIterator, treating STREAM as CHUNK. Use
+ * {@link WideRowGuard#setRowLimits} to configure either of them.
+ */
+public class WideRowGuard
+        implements SortedKeyValueIterator<Key, Value>
+{
+    public enum Policy
+    {
+        STREAM, SKIP, CHUNK
+    }
+
+    public static final String MAX_ROW_CELLS = "maxRowCells";
+    public static final String MAX_ROW_BYTES = "maxRowBytes";
+    public static final String POLICY = "wideRowPolicy";
+
+    private final long maxCells;
+    private final long maxBytes;
+    private final Policy policy;
+
+    private SortedKeyValueIterator<Key, Value> source;
+    private long cells;
+    private long bytes;
+    private boolean exceeded;
+    private final Text row = new Text();
+
+    public WideRowGuard(long maxCells, long maxBytes, Policy policy)
+    {
+        this.maxCells = maxCells;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    /**
+     * Creates a guard from the limits in the given iterator options
+     *
+     * @param options Iterator options
+     * @return The guard, or null if no limits are set
+     */
+    public static WideRowGuard fromOptions(Map<String, String> options)
+    {
+        validateOptions(options);
+        if (!options.containsKey(MAX_ROW_CELLS) && !options.containsKey(MAX_ROW_BYTES)) {
+            return null;
+        }
+
+        return new WideRowGuard(
+                options.containsKey(MAX_ROW_CELLS) ? Long.parseLong(options.get(MAX_ROW_CELLS)) : Long.MAX_VALUE,
+                options.containsKey(MAX_ROW_BYTES) ? Long.parseLong(options.get(MAX_ROW_BYTES)) : Long.MAX_VALUE,
+                Policy.valueOf(options.get(POLICY)));
+    }
+
+    public static void validateOptions(Map<String, String> options)
+    {
+        if (!options.containsKey(MAX_ROW_CELLS) && !options.containsKey(MAX_ROW_BYTES)) {
+            if (options.containsKey(POLICY)) {
+                throw new IllegalArgumentException("Option " + POLICY + " requires " + MAX_ROW_CELLS + " or " + MAX_ROW_BYTES);
+            }
+            return;
+        }
+
+        if (options.get(POLICY) == null) {
+            throw new IllegalArgumentException("Option " + POLICY + " is required");
+        }
+
+        try {
+            Policy.valueOf(options.get(POLICY));
+            for (String opt : new String[] {MAX_ROW_CELLS, MAX_ROW_BYTES}) {
+                if (options.containsKey(opt) && Long.parseLong(options.get(opt)) < 1) {
+                    throw new IllegalArgumentException("Option " + opt + " must be at least 1");
+                }
+            }
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Bad wide row option", e);
+        }
+    }
+
+    public static boolean isGuardOption(String option)
+    {
+        return option.equals(MAX_ROW_CELLS) || option.equals(MAX_ROW_BYTES) || option.equals(POLICY);
+    }
+
+    /**
+     * A convenience method for setting the row limits of a row iterator
+     *
+     * @param is IteratorSetting object to configure
+     * @param maxCells Maximum number of cells of a row
+     * @param maxBytes Maximum number of Key and Value bytes of a row
+     * @param policy What to do with rows over either limit
+     */
+    public static void setRowLimits(IteratorSetting is, long maxCells, long maxBytes, Policy policy)
+    {
+        is.addOption(MAX_ROW_CELLS, Long.toString(maxCells));
+        is.addOption(MAX_ROW_BYTES, Long.toString(maxBytes));
+        is.addOption(POLICY, policy.name());
+    }
+
+    public Policy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Gets whether a row of the given size is at the limits, i.e. whether one more cell puts it over them
+     *
+     * @param cells Number of cells of the row so far
+     * @param bytes Number of bytes of the row so far
+     * @return True if the row is at the limits
+     */
+    public boolean isFull(long cells, long bytes)
+    {
+        return cells >= maxCells || bytes >= maxBytes;
+    }
+
+    /**
+     * Starts guarding a new row
+     *
+     * @param rowIterator Iterator over the cells of the row
+     */
+    public void reset(SortedKeyValueIterator<Key, Value> rowIterator)
+    {
+        source = rowIterator;
+        cells = 0;
+        bytes = 0;
+        exceeded = false;
+    }
+
+    /**
+     * Gets whether the current row went over the limits, in which case the guard stops at that point under the SKIP policy
+     *
+     * @return True if the row is over the limits
+     */
+    public boolean isExceeded()
+    {
+        return exceeded;
+    }
+
+    /**
+     * Gets the row that went over the limits
+     *
+     * @return Row ID, valid only if {@link WideRowGuard#isExceeded} is true
+     */
+    public Text getRow()
+    {
+        return row;
+    }
+
+    @Override
+    public boolean hasTop()
+    {
+        return !(exceeded && policy == Policy.SKIP) && source.hasTop();
+    }
+
+    @Override
+    public void next()
+            throws IOException
+    {
+        ++cells;
+        bytes += source.getTopKey().getSize() + source.getTopValue().getSize();
+        source.next();
+
+        if (!exceeded && isFull(cells, bytes) && source.hasTop()) {
+            exceeded = true;
+            source.getTopKey().getRow(row);
+        }
+    }
+
+    @Override
+    public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive)
+            throws IOException
+    {
+        // Each evaluation of the row gets the full limits, but a row stays over the limits once it has gone over them
+        cells = 0;
+        bytes = 0;
+        source.seek(range, columnFamilies, inclusive);
+    }
+
+    @Override
+    public Key getTopKey()
+    {
+        return source.getTopKey();
+    }
+
+    @Override
+    public Value getTopValue()
+    {
+        return source.getTopValue();
+    }
+
+    @Override
+    public void init(SortedKeyValueIterator<Key, Value> source, Map<String, String> options, IteratorEnvironment env)
+            throws IOException
+    {
+        throw new UnsupportedOperationException("WideRowGuard is a view over a row and cannot be initialized");
+    }
+
+    @Override
+    public SortedKeyValueIterator<Key, Value> deepCopy(IteratorEnvironment env)
+    {
+        return new WideRowGuard(maxCells, maxBytes, policy);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("WideRowGuard{maxCells=%d,maxBytes=%d,policy=%s}", maxCells, maxBytes, policy);
+    }
+}
@@ -62,7 +62,9 @@ public class Main
     private static List<Task> tasks = ImmutableList.of(
             new IndexMigration(),
             new PaginationTask(),
-            new QueryMetrics());
+            new PurgeTask(),
+            new QueryMetrics(),
+            new ReEncodeTask());
 
     private static final Option HELP = OptionBuilder.withDescription("Print this help message").withLongOpt("help").create();
     private static final Option CONFIG = OptionBuilder.withDescription("accumulo.properties file").withLongOpt("config").hasArg().create('c');
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.tools;
+
+import org.apache.log4j.Logger;
+
+import javax.sql.rowset.CachedRowSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Cache of the pages fetched by the {@link PaginationTask} in a memory-mapped local spill file, so a page that has
+ * already been fetched is read back from local disk rather than queried again.
+ * <p>
+ * Each page is serialized into an extent of the file allocated first-fit from its free space. An index maps the
+ * offsets of each page to its extent, and the least recently used pages are evicted until a new page fits. The spill
+ * file is deleted when the cache is closed.
+ */
+class PageCache
+        implements Closeable
+{
+    private static final Logger LOG = Logger.getLogger(PageCache.class);
+
+    private final int capacity;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    // Extents of the cached pages keyed by their minimum offset, in least recently used order
+    private final LinkedHashMap<Long, Extent> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Lengths of the free extents of the file keyed by their position
+    private final TreeMap<Integer, Integer> free = new TreeMap<>();
+
+    /**
+     * Creates a new spill file of the given size
+     *
+     * @param capacity Size of the spill file, in bytes
+     * @throws IOException If the spill file cannot be created
+     */
+    public PageCache(int capacity)
+            throws IOException
+    {
+        this.capacity = capacity;
+        this.channel = FileChannel.open(Files.createTempFile("pagination", ".spill"), READ, WRITE, DELETE_ON_CLOSE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        free.put(0, capacity);
+    }
+
+    /**
+     * Gets the rows of data from [min, max) if they are cached
+     *
+     * @param min Minimum value of the offset, inclusive
+     * @param max Maximum value of the offset, exclusive
+     * @return Rows of the page, or null if the page is not cached
+     * @throws SQLException If the page fails to deserialize
+     */
+    public CachedRowSet get(long min, long max)
+            throws SQLException
+    {
+        Extent extent = index.get(min);
+        if (extent == null || extent.max != max) {
+            return null;
+        }
+
+        byte[] bytes = new byte[extent.length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(extent.position);
+        source.get(bytes);
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (CachedRowSet) in.readObject();
+        }
+        catch (IOException | ClassNotFoundException e) {
+            throw new SQLException(format("Failed to read page of rows %d to %d from the spill file", min, max), e);
+        }
+    }
+
+    /**
+     * Caches the rows of data from [min, max), evicting the least recently used pages until they fit. Pages larger
+     * than the spill file are not cached.
+     *
+     * @param min Minimum value of the offset, inclusive
+     * @param max Maximum value of the offset, exclusive
+     * @param rows Rows of the page
+     * @throws SQLException If the page fails to serialize
+     */
+    public void put(long min, long max, CachedRowSet rows)
+            throws SQLException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(rows);
+        }
+        catch (IOException e) {
+            throw new SQLException(format("Failed to write page of rows %d to %d to the spill file", min, max), e);
+        }
+
+        if (bytes.size() > capacity) {
+            LOG.debug(format("Page of rows %d to %d is larger than the spill file, not caching", min, max));
+            return;
+        }
+
+        Extent previous = index.remove(min);
+        if (previous != null) {
+            release(previous);
+        }
+
+        Integer position;
+        while ((position = allocate(bytes.size())) == null) {
+            Iterator<Map.Entry<Long, Extent>> eldest = index.entrySet().iterator();
+            release(eldest.next().getValue());
+            eldest.remove();
+        }
+
+        ByteBuffer destination = buffer.duplicate();
+        destination.position(position);
+        destination.put(bytes.toByteArray());
+        index.put(min, new Extent(max, position, bytes.size()));
+    }
+
+    private Integer allocate(int length)
+    {
+        for (Map.Entry<Integer, Integer> extent : free.entrySet()) {
+            if (extent.getValue() >= length) {
+                int position = extent.getKey();
+                free.remove(position);
+                if (extent.getValue() > length) {
+                    free.put(position + length, extent.getValue() - length);
+                }
+                return position;
+            }
+        }
+        return null;
+    }
+
+    private void release(Extent extent)
+    {
+        // Coalesce the extent with the free extents on either side of it
+        int position = extent.position;
+        int length = extent.length;
+
+        Map.Entry<Integer, Integer> next = free.higherEntry(position);
+        if (next != null && next.getKey() == position + length) {
+            length += next.getValue();
+            free.remove(next.getKey());
+        }
+
+        Map.Entry<Integer, Integer> previous = free.lowerEntry(position);
+        if (previous != null && previous.getKey() + previous.getValue() == position) {
+            position = previous.getKey();
+            length += previous.getValue();
+        }
+
+        free.put(position, length);
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        index.clear();
+        free.clear();
+        channel.close();
+    }
+
+    private static class Extent
+    {
+        private final long max;
+        private final int position;
+        private final int length;
+
+        public Extent(long max, int position, int length)
+        {
+            this.max = max;
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.facebook.presto.accumulo.tools;
 import com.facebook.presto.accumulo.conf.AccumuloConfig;
 import com.facebook.presto.cli.AlignedTablePrinter;
 import com.facebook.presto.jdbc.PrestoConnection;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
@@ -27,11 +28,17 @@ import org.apache.commons.lang.text.StrSubstitutor;
 import org.apache.log4j.Logger;
 
 import javax.activity.InvalidActivityException;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -43,7 +50,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.lang.String.format;
 
@@ -51,6 +64,21 @@ import static java.lang.String.format;
  * This task is used to execute a query and paginate results. It is mainly intended to be used
  * programatically (because you can just use the presto-cli to query and paginate results), but
  * it can be executed at the command line.
+ * <p>
+ * By default, the results of the query are materialized in a temporary table before the first page is returned. In
+ * streaming mode, a single cursor over the query is read a page at a time into a bounded local buffer of the most
+ * recent pages, so the first page is returned as soon as Presto produces it. The results are only materialized when a
+ * page outside of the buffer is requested, e.g. paging back past the buffer or fetching arbitrary rows, which runs the
+ * query again. As the rows are numbered without an order, the materialized rows may be numbered differently than the
+ * streamed rows, so paging then restarts from the first page of the temporary table.
+ * <p>
+ * Once the results are in the temporary table, the pages after the current page and the page before it can be read
+ * ahead in the background into a ring buffer, so moving to them does not wait on a query. The fetched pages can also be
+ * cached in a local spill file, so paging back to them does not query Presto again.
+ * <p>
+ * The rows of the temporary table are numbered by a window function, which runs in a single task unless the query is
+ * materialized in multiple partitions. Each partition then numbers its rows on its own, and the offsets of the first
+ * row of each partition, summed from their row counts, map the offsets of the query to the row IDs of the table.
  */
 public class PaginationTask
         extends Task
@@ -67,6 +95,11 @@ public class PaginationTask
     private static final char COLUMNS_OPT = 'c';
     private static final char PAGE_SIZE_OPT = 's';
     private static final char USER_OPT = 'u';
+    private static final char STREAM_OPT = 'm';
+    private static final char BUFFER_SIZE_OPT = 'b';
+    private static final char READ_AHEAD_OPT = 'a';
+    private static final char SPILL_SIZE_OPT = 'x';
+    private static final char PARTITIONS_OPT = 'n';
 
     // JDBC constants
     private static final String JDBC_DRIVER = "com.facebook.presto.jdbc.PrestoDriver";
@@ -89,17 +122,26 @@ public class PaginationTask
     private static final String TMP_COLUMN_MAPPING = "tmp.column.mapping";
     private static final String SUBQUERY_COLUMNS = "subquery.columns";
     private static final String USER_QUERY = "user.query";
+    private static final String OFFSET = "offset";
 
+    // When materializing in parallel, the row ID of a row is its partition shifted by this amount plus its offset
+    // within the partition, so the rows sort by partition and then by the offset within it
+    private static final long PARTITION_SHIFT = 1L << 40;
+
+    // The offset is the row ID of the temporary table, lexicoded so the rows sort by offset, which makes fetching a
+    // page a scan of a single range of exactly the rows of the page rather than a filter over the whole table
     // @formatter:off
     private final String createTableTemplate = StringUtils.join(new String[] {
             "CREATE TABLE ${" + TMP_TABLE + "}",
             "WITH",
             "(",
-            "    column_mapping = '${" + TMP_COLUMN_MAPPING + "}'",
+            "    column_mapping = '${" + TMP_COLUMN_MAPPING + "}',",
+            "    row_id = 'offset',",
+            "    serializer = 'lexicoder'",
             ")",
             "AS",
             "SELECT ",
-            "    row_number() OVER (PARTITION BY t.groupby) AS offset, ${" + SUBQUERY_COLUMNS + "}",
+            "    ${" + OFFSET + "} AS offset, ${" + SUBQUERY_COLUMNS + "}",
             "FROM",
             "(",
             "    ${" + USER_QUERY + "}",
@@ -109,7 +151,8 @@ public class PaginationTask
     private final String selectQueryTemplate =
             "SELECT ${" + SUBQUERY_COLUMNS + "} " +
                     "FROM ${" + TMP_TABLE + "} " +
-                    "WHERE offset > ${" + MIN + "} AND offset <= ${" + MAX + "}";
+                    "WHERE offset > ${" + MIN + "} AND offset <= ${" + MAX + "} " +
+                    "ORDER BY offset";
     // @formatter:on
 
     // User-specified configuration items
@@ -140,6 +183,28 @@ public class PaginationTask
     // Default page size for moving between the tables
     private long pageSize = 20;
 
+    // Streaming mode and the maximum number of pages to buffer locally
+    private boolean streaming = false;
+    private int bufferSize = 10;
+
+    // Open cursor over the query in streaming mode, and the buffered pages keyed by their minimum offset
+    private Statement streamStatement = null;
+    private ResultSet streamResults = null;
+    private final TreeMap<Long, CachedRowSet> pages = new TreeMap<>();
+
+    // Number of pages to read ahead, and the ring buffer of pages read in the background, indexed by page number
+    private int readAhead = 0;
+    private ExecutorService readAheadService = null;
+    private ReadAheadPage[] readAheadPages = null;
+
+    // Maximum size of the local spill file of fetched pages, in bytes, and the cache of pages in the spill file
+    private long pageCacheSize = 0;
+    private PageCache pageCache = null;
+
+    // Number of partitions to materialize the query in, and the offset of the first row of each partition
+    private int partitions = 1;
+    private long[] partitionOffsets = null;
+
     private ResultSet resultSet = null;
     private Statement currentStatement = null;
     private boolean open = false;
@@ -233,11 +298,105 @@ public class PaginationTask
         conn.setCatalog(CATALOG);
         setSessionProperties(conn);
 
+        if (streaming) {
+            openStream();
+        }
+        else {
+            materialize();
+        }
+        return 0;
+    }
+
+    private void openStream()
+            throws SQLException
+    {
+        String streamQuery = format("SELECT %s FROM (%s) t", StringUtils.join(columns, ','), query);
+        LOG.info(format("Executing query to stream results:\n%s", streamQuery));
+        streamStatement = conn.createStatement();
+        streamResults = streamStatement.executeQuery(streamQuery);
+    }
+
+    /**
+     * Reads the next page of rows from the open cursor into the buffer, evicting the oldest page if the buffer is full
+     * and closing the cursor once the query has no more rows
+     *
+     * @throws SQLException If an error occurs reading the rows
+     */
+    private void bufferNextPage()
+            throws SQLException
+    {
+        CachedRowSet page = RowSetProvider.newFactory().createCachedRowSet();
+        page.populate(limit(streamResults, (int) pageSize));
+
+        if (page.size() > 0) {
+            pages.put(maxOffset, page);
+            maxOffset += page.size();
+            if (pages.size() > bufferSize) {
+                pages.pollFirstEntry();
+            }
+        }
+
+        if (page.size() < pageSize) {
+            LOG.info(format("Query has %d results", maxOffset));
+            closeStream();
+        }
+    }
+
+    /**
+     * Gets a view of the given ResultSet that returns no more than the given number of rows, leaving the rest of them
+     * to be read from the given ResultSet
+     */
+    private static ResultSet limit(ResultSet results, int limit)
+    {
+        int[] remaining = {limit};
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().equals("next") && method.getParameterCount() == 0) {
+                if (remaining[0] == 0) {
+                    return false;
+                }
+                --remaining[0];
+            }
+
+            try {
+                return method.invoke(results, args);
+            }
+            catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return (ResultSet) Proxy.newProxyInstance(PaginationTask.class.getClassLoader(), new Class<?>[] {ResultSet.class}, handler);
+    }
+
+    private void closeStream()
+            throws SQLException
+    {
+        if (streamResults != null) {
+            streamResults.close();
+            streamStatement.close();
+            streamResults = null;
+            streamStatement = null;
+        }
+    }
+
+    /**
+     * Runs the query to create the temporary table for pagination, discarding any streamed results
+     *
+     * @throws SQLException If an error occurs executing the query
+     */
+    private void materialize()
+            throws SQLException
+    {
+        closeStream();
+        pages.clear();
+
+        // The cached pages are numbered as streamed, so they do not line up with the temporary table
+        closePageCache();
+
         // Randomly generate a table name as a local variable
         String tmpTable =
                 "accumulo.pagination.tmp_" + UUID.randomUUID().toString().replaceAll("\\W", "");
 
-        // Build the column mapping based on
+        // Build the column mapping based on the columns of the user query, as the offset is the row ID
         StringBuilder columnMapping = new StringBuilder();
         for (String col : columns) {
             columnMapping.append(col).append(":f:")
@@ -250,7 +409,15 @@ public class PaginationTask
         queryProps.put(TMP_TABLE, tmpTable);
         queryProps.put(TMP_COLUMN_MAPPING, columnMapping.toString());
         queryProps.put(SUBQUERY_COLUMNS, StringUtils.join(columns, ','));
-        queryProps.put(USER_QUERY, "SELECT 0 AS groupby, " + query.substring(query.indexOf("SELECT ") + 7));
+        if (partitions > 1) {
+            // Spread the rows randomly over the partitions, so the window function runs in parallel
+            queryProps.put(USER_QUERY, format("SELECT random(%d) AS groupby, ", partitions) + query.substring(query.indexOf("SELECT ") + 7));
+            queryProps.put(OFFSET, format("t.groupby * %d + row_number() OVER (PARTITION BY t.groupby)", PARTITION_SHIFT));
+        }
+        else {
+            queryProps.put(USER_QUERY, "SELECT 0 AS groupby, " + query.substring(query.indexOf("SELECT ") + 7));
+            queryProps.put(OFFSET, "row_number() OVER (PARTITION BY t.groupby)");
+        }
 
         // Execute the create table query
         StrSubstitutor sub = new StrSubstitutor(queryProps);
@@ -261,28 +428,59 @@ public class PaginationTask
 
         stmt.close();
 
-        // Execute the query to get the max offset i.e. number of rows from the user query
-        stmt = conn.createStatement();
-        ResultSet results = stmt.executeQuery("SELECT MAX(offset) FROM " + tmpTable);
-        results.next();
-        maxOffset = results.getLong(1);
-        LOG.info(format("Query has %d results", maxOffset));
+        if (partitions > 1) {
+            // Execute the query to get the number of rows in each partition, summing them into the offset of the
+            // first row of each partition
+            stmt = conn.createStatement();
+            ResultSet results = stmt.executeQuery(format("SELECT offset / %d, count(*) FROM %s GROUP BY 1", PARTITION_SHIFT, tmpTable));
+            long[] counts = new long[partitions];
+            while (results.next()) {
+                counts[(int) results.getLong(1)] = results.getLong(2);
+            }
 
-        results.close();
-        stmt.close();
+            partitionOffsets = new long[partitions + 1];
+            for (int i = 0; i < partitions; ++i) {
+                partitionOffsets[i + 1] = partitionOffsets[i] + counts[i];
+            }
+            maxOffset = partitionOffsets[partitions];
+            LOG.info(format("Query has %d results in %d partitions", maxOffset, partitions));
+
+            results.close();
+            stmt.close();
+        }
+        else {
+            // Execute the query to get the max offset i.e. number of rows from the user query
+            stmt = conn.createStatement();
+            ResultSet results = stmt.executeQuery("SELECT MAX(offset) FROM " + tmpTable);
+            results.next();
+            maxOffset = results.getLong(1);
+            LOG.info(format("Query has %d results", maxOffset));
+
+            results.close();
+            stmt.close();
+        }
 
         // Set the temp table name now that we have made it through the gauntlet
         this.tmpTableName = tmpTable;
-        return 0;
     }
 
     /**
-     * Gets a Boolean value indicating whether or not there are rows left to be paginated
+     * Gets a Boolean value indicating whether or not there are rows left to be paginated. In streaming mode, this
+     * reads the next page from the cursor once the current page is the last one read.
      *
      * @return True if there are more rows, false otherwise
+     * @throws RuntimeException If an error occurs reading the next page in streaming mode
      */
     public boolean hasNext()
     {
+        if (streamResults != null && max == maxOffset) {
+            try {
+                bufferNextPage();
+            }
+            catch (SQLException e) {
+                throw new RuntimeException("Failed to read the next page of results", e);
+            }
+        }
         return max < maxOffset;
     }
 
@@ -318,15 +516,23 @@ public class PaginationTask
     public ResultSet previous()
             throws SQLException
     {
-        // TODO Fix when you hit the last page and then go back -- messes up the page
-        // get min and max values to get for this result set, update current offset
-        min = Math.max(min - pageSize, 0);
-        max = Math.max(max - pageSize, pageSize);
+        if (min > 0) {
+            // get min and max values to get for this result set, update current offset
+            // the previous page always ends where the current page starts, even when the current page is the last
+            // page and has fewer rows than the page size
+            max = min;
+            min = Math.max(min - pageSize, 0);
+        }
+
+        // else, just use the last min/max and run the query again
         return getRows(min, max);
     }
 
     /**
      * Queries the temporary table for the rows of data from [min, max)
+     * In streaming mode, a page in the buffer is returned as is, and any other rows materialize the query first, which
+     * restarts paging from the first page of the temporary table and returns that page instead.
+     * If the page cache is enabled, a page that has already been fetched is read from the local spill file instead.
      * Call {@link PaginationTask#closePage} after processing the ResultSet before fetching the next page.
      *
      * @param min Minimum value of the offset to be retrieved, inclusive
@@ -342,20 +548,246 @@ public class PaginationTask
             throw new RuntimeException("Page is currently open.  Call PaginationTask#closePage before fetching another page");
         }
 
+        if (pageCacheSize > 0 && pageCache == null) {
+            try {
+                pageCache = new PageCache((int) pageCacheSize);
+            }
+            catch (IOException e) {
+                throw new SQLException("Failed to create the spill file of the page cache", e);
+            }
+        }
+
+        ResultSet rows = pageCache != null ? pageCache.get(min, max) : null;
+        if (rows == null) {
+            if (tmpTableName == null && getBufferedPage(min, max) == null) {
+                LOG.info(format("Rows %d to %d are not buffered, materializing the query and restarting from the first page", min, max));
+                materialize();
+
+                // The rows of the temporary table are numbered independently of the streamed rows, so the pages that
+                // were already returned do not line up with it
+                this.min = 0;
+                this.max = Math.min(pageSize, maxOffset);
+                return getRows(this.min, this.max);
+            }
+
+            rows = fetchRows(min, max);
+
+            if (pageCache != null) {
+                // Copy the rows of a page that was queried, so it can be cached
+                CachedRowSet cachedRows;
+                if (rows instanceof CachedRowSet) {
+                    cachedRows = (CachedRowSet) rows;
+                }
+                else {
+                    cachedRows = RowSetProvider.newFactory().createCachedRowSet();
+                    cachedRows.populate(rows);
+                    rows.close();
+                    currentStatement.close();
+                    currentStatement = null;
+                }
+
+                pageCache.put(min, max, cachedRows);
+                cachedRows.beforeFirst();
+                rows = cachedRows;
+            }
+        }
+
+        open = true;
+        resultSet = rows;
+        return resultSet;
+    }
+
+    /**
+     * Fetches the rows of data from [min, max) from the buffer of streamed pages, the read-ahead ring buffer, or the
+     * temporary table, setting the current statement if the rows are queried. In streaming mode, the rows must be
+     * buffered.
+     */
+    private ResultSet fetchRows(long min, long max)
+            throws SQLException
+    {
+        if (tmpTableName == null) {
+            return getBufferedPage(min, max);
+        }
+
+        // Only whole pages are read ahead
+        if (readAhead > 0 && min % pageSize == 0 && max == Math.min(min + pageSize, maxOffset)) {
+            long page = min / pageSize;
+            CachedRowSet rows = getReadAheadPage(page);
+            readAhead(page);
+            if (rows != null) {
+                return rows;
+            }
+        }
+
+        String prevQuery = getPageQuery(min, max);
+        LOG.info(format("Executing %s", prevQuery));
+        currentStatement = conn.createStatement();
+        return currentStatement.executeQuery(prevQuery);
+    }
+
+    private void closePageCache()
+    {
+        if (pageCache != null) {
+            try {
+                pageCache.close();
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            pageCache = null;
+        }
+    }
+
+    private CachedRowSet getBufferedPage(long min, long max)
+            throws SQLException
+    {
+        CachedRowSet page = pages.get(min);
+        if (page == null || min + page.size() != max) {
+            return null;
+        }
+
+        page.beforeFirst();
+        return page;
+    }
+
+    private String getPageQuery(long min, long max)
+    {
         Map<String, Object> queryProps = new HashMap<>();
         queryProps.put(SUBQUERY_COLUMNS, StringUtils.join(columns, ','));
         queryProps.put(TMP_TABLE, tmpTableName);
-        queryProps.put(MIN, min);
-        queryProps.put(MAX, max);
+        queryProps.put(MIN, getRowId(min));
+        queryProps.put(MAX, getRowId(max));
 
         StrSubstitutor sub = new StrSubstitutor(queryProps);
-        String prevQuery = sub.replace(selectQueryTemplate);
+        return sub.replace(selectQueryTemplate);
+    }
 
-        LOG.info(format("Executing %s", prevQuery));
-        currentStatement = conn.createStatement();
-        open = true;
-        resultSet = currentStatement.executeQuery(prevQuery);
-        return resultSet;
+    /**
+     * Gets the row ID of the row with the given offset, which is the offset itself unless the query was materialized
+     * in parallel
+     *
+     * @param offset Offset of the row, or 0 for the position before the first row
+     * @return Row ID of the row, or of the last row if the offset is past it
+     */
+    private long getRowId(long offset)
+    {
+        if (partitionOffsets == null || offset <= 0) {
+            return offset;
+        }
+
+        // Offsets past the last row map to the last row, so the page is empty as with a single partition
+        long clampedOffset = Math.min(offset, maxOffset);
+        if (clampedOffset == 0) {
+            return 0;
+        }
+
+        // Find the partition holding the row, skipping any empty partitions before it
+        int partition = 0;
+        while (partitionOffsets[partition + 1] < clampedOffset) {
+            ++partition;
+        }
+        return partition * PARTITION_SHIFT + clampedOffset - partitionOffsets[partition];
+    }
+
+    /**
+     * Gets the given page from the read-ahead ring buffer, waiting for it if it is still being read
+     *
+     * @param page Page number
+     * @return Rows of the page, or null if the page was not read ahead or failed to be read
+     * @throws SQLException If interrupted waiting for the page
+     */
+    private CachedRowSet getReadAheadPage(long page)
+            throws SQLException
+    {
+        if (readAheadPages == null) {
+            return null;
+        }
+
+        int slot = (int) (page % readAheadPages.length);
+        ReadAheadPage readAheadPage = readAheadPages[slot];
+        if (readAheadPage == null || readAheadPage.page != page) {
+            return null;
+        }
+
+        try {
+            CachedRowSet rows = readAheadPage.rows.get();
+            rows.beforeFirst();
+            return rows;
+        }
+        catch (ExecutionException | CancellationException e) {
+            LOG.warn(format("Failed to read ahead page %d, querying it again", page), e);
+            readAheadPages[slot] = null;
+            return null;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for page " + page, e);
+        }
+    }
+
+    /**
+     * Reads the pages after the given page and the page before it in the background, replacing the pages in the ring
+     * buffer that are farthest from the given page
+     *
+     * @param page Current page number
+     */
+    private void readAhead(long page)
+    {
+        if (readAheadService == null) {
+            // A daemon thread, so a session that is never cleaned up does not keep the JVM alive
+            readAheadService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("pagination-read-ahead-%d").setDaemon(true).build());
+            // Room for the pages ahead, the current page, and the previous page
+            readAheadPages = new ReadAheadPage[readAhead + 2];
+        }
+
+        // Read the next page first, then the previous page, as these are the most likely to be requested
+        submitReadAhead(page + 1);
+        submitReadAhead(page - 1);
+        for (int i = 2; i <= readAhead; ++i) {
+            submitReadAhead(page + i);
+        }
+    }
+
+    private void submitReadAhead(long page)
+    {
+        long pageMin = page * pageSize;
+        if (page < 0 || pageMin >= maxOffset) {
+            return;
+        }
+
+        int slot = (int) (page % readAheadPages.length);
+        ReadAheadPage readAheadPage = readAheadPages[slot];
+        if (readAheadPage != null) {
+            if (readAheadPage.page == page) {
+                return;
+            }
+            readAheadPage.rows.cancel(true);
+        }
+
+        String pageQuery = getPageQuery(pageMin, Math.min(pageMin + pageSize, maxOffset));
+        readAheadPages[slot] = new ReadAheadPage(page, readAheadService.submit(() -> {
+            LOG.debug(format("Reading ahead %s", pageQuery));
+            try (Statement stmt = conn.createStatement();
+                    ResultSet rows = stmt.executeQuery(pageQuery)) {
+                CachedRowSet cachedRows = RowSetProvider.newFactory().createCachedRowSet();
+                cachedRows.populate(rows);
+                return cachedRows;
+            }
+        }));
+    }
+
+    private void stopReadAhead()
+    {
+        if (readAheadService != null) {
+            for (ReadAheadPage readAheadPage : readAheadPages) {
+                if (readAheadPage != null) {
+                    readAheadPage.rows.cancel(true);
+                }
+            }
+            readAheadService.shutdownNow();
+            readAheadService = null;
+            readAheadPages = null;
+        }
     }
 
     /**
@@ -367,8 +799,12 @@ public class PaginationTask
             throws SQLException
     {
         if (open) {
-            resultSet.close();
-            currentStatement.close();
+            // Buffered pages are kept for paging back to them
+            if (currentStatement != null) {
+                resultSet.close();
+                currentStatement.close();
+                currentStatement = null;
+            }
             open = false;
         }
     }
@@ -379,7 +815,21 @@ public class PaginationTask
      */
     public void cleanup()
     {
+        stopReadAhead();
+        closePageCache();
+
+        try {
+            closeStream();
+        }
+        catch (SQLException e) {
+            e.printStackTrace();
+        }
+        pages.clear();
+
         if (tmpTableName == null) {
+            min = 0;
+            max = 0;
+            maxOffset = 0;
             return;
         }
 
@@ -393,11 +843,17 @@ public class PaginationTask
         }
 
         tmpTableName = null;
+        partitionOffsets = null;
         min = 0;
         max = 0;
         maxOffset = 0;
     }
 
+    /**
+     * Gets the number of rows of the query, or the number of rows read so far in streaming mode
+     *
+     * @return Maximum offset
+     */
     public long getMaxOffset()
     {
         return maxOffset;
@@ -414,6 +870,11 @@ public class PaginationTask
         this.setQuery(IOUtils.toString(new FileInputStream(cmd.getOptionValue(QUERY_FILE_OPT))));
         this.setQueryColumnNames(cmd.getOptionValues(COLUMNS_OPT));
         this.setPageSize(Integer.parseInt(cmd.getOptionValue(PAGE_SIZE_OPT, "20")));
+        this.setStreaming(cmd.hasOption(STREAM_OPT));
+        this.setBufferSize(Integer.parseInt(cmd.getOptionValue(BUFFER_SIZE_OPT, "10")));
+        this.setReadAhead(Integer.parseInt(cmd.getOptionValue(READ_AHEAD_OPT, "0")));
+        this.setPageCacheSize(Long.parseLong(cmd.getOptionValue(SPILL_SIZE_OPT, "0")) * 1024 * 1024);
+        this.setPartitions(Integer.parseInt(cmd.getOptionValue(PARTITIONS_OPT, "1")));
         return this.exec();
     }
 
@@ -491,13 +952,104 @@ public class PaginationTask
     public void setPageSize(int size)
             throws InvalidActivityException
     {
-        if (tmpTableName != null) {
+        if (tmpTableName != null || maxOffset > 0) {
             throw new InvalidActivityException("Cannot change the page size mid-query.  "
                     + "Cleanup first, then set the page size.");
         }
         this.pageSize = size;
     }
 
+    /**
+     * Sets whether to stream the results of the query through a local buffer of pages rather than materializing them
+     * in a temporary table before returning the first page. Default is false.
+     *
+     * @param streaming True to stream the results, false to materialize them
+     */
+    public void setStreaming(boolean streaming)
+    {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Sets the maximum number of pages to buffer locally in streaming mode. Default is 10 pages.
+     *
+     * @param bufferSize Number of pages
+     */
+    public void setBufferSize(int bufferSize)
+    {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be at least 1 page");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Sets the number of pages to read ahead in the background once the results are in the temporary table, along
+     * with the page before the current page. Default is 0, which disables reading ahead.
+     *
+     * @param readAhead Number of pages
+     * @throws InvalidActivityException If an attempt to set the number of pages mid-query occurs. Call cleanup, then
+     * set the number of pages
+     */
+    public void setReadAhead(int readAhead)
+            throws InvalidActivityException
+    {
+        if (readAhead < 0) {
+            throw new IllegalArgumentException("Number of pages to read ahead must not be negative");
+        }
+
+        if (readAheadService != null) {
+            throw new InvalidActivityException("Cannot change the number of pages to read ahead mid-query.  "
+                    + "Cleanup first, then set the number of pages.");
+        }
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Sets the maximum size of the memory-mapped local spill file caching the fetched pages, so a page that has already
+     * been fetched is not queried again. The least recently used pages are evicted once it is full. Default is 0,
+     * which disables the page cache.
+     *
+     * @param pageCacheSize Size of the spill file, in bytes
+     * @throws InvalidActivityException If an attempt to set the size mid-query occurs. Call cleanup, then set the size
+     */
+    public void setPageCacheSize(long pageCacheSize)
+            throws InvalidActivityException
+    {
+        if (pageCacheSize < 0 || pageCacheSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(format("Page cache size must be between 0 and %d bytes", Integer.MAX_VALUE));
+        }
+
+        if (pageCache != null) {
+            throw new InvalidActivityException("Cannot change the page cache size mid-query.  "
+                    + "Cleanup first, then set the page cache size.");
+        }
+        this.pageCacheSize = pageCacheSize;
+    }
+
+    /**
+     * Sets the number of partitions to materialize the query in. With more than one partition, the rows are spread
+     * randomly over the partitions and numbered within each of them in parallel, rather than all of them being
+     * numbered by a single task. Default is 1 partition.
+     *
+     * @param partitions Number of partitions
+     * @throws InvalidActivityException If an attempt to set the number of partitions mid-query occurs. Call cleanup,
+     * then set the number of partitions
+     */
+    public void setPartitions(int partitions)
+            throws InvalidActivityException
+    {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Number of partitions must be at least 1");
+        }
+
+        if (tmpTableName != null) {
+            throw new InvalidActivityException("Cannot change the number of partitions mid-query.  "
+                    + "Cleanup first, then set the number of partitions.");
+        }
+        this.partitions = partitions;
+    }
+
     /**
      * Gets the current page size
      *
@@ -611,6 +1163,21 @@ public class PaginationTask
         opts.addOption(OptionBuilder.withLongOpt("size")
                 .withDescription("Page size.  Default 20 rows per page").hasArg()
                 .create(PAGE_SIZE_OPT));
+        opts.addOption(OptionBuilder.withLongOpt("stream")
+                .withDescription("Stream results through a local buffer of pages rather than materializing them in a temporary table first")
+                .create(STREAM_OPT));
+        opts.addOption(OptionBuilder.withLongOpt("buffer-size")
+                .withDescription("Number of pages to buffer when streaming.  Default 10 pages").hasArg()
+                .create(BUFFER_SIZE_OPT));
+        opts.addOption(OptionBuilder.withLongOpt("read-ahead")
+                .withDescription("Number of pages to read ahead in the background.  Default 0").hasArg()
+                .create(READ_AHEAD_OPT));
+        opts.addOption(OptionBuilder.withLongOpt("spill-size")
+                .withDescription("Size in MB of the local spill file caching fetched pages.  Default 0, disabled").hasArg()
+                .create(SPILL_SIZE_OPT));
+        opts.addOption(OptionBuilder.withLongOpt("partitions")
+                .withDescription("Number of partitions to materialize the results in parallel.  Default 1").hasArg()
+                .create(PARTITIONS_OPT));
         return opts;
     }
 
@@ -651,4 +1218,16 @@ public class PaginationTask
                     Boolean.toString(indexMetricsEnabled));
         }
     }
+
+    private static class ReadAheadPage
+    {
+        private final long page;
+        private final Future<CachedRowSet> rows;
+
+        public ReadAheadPage(long page, Future<CachedRowSet> rows)
+        {
+            this.page = page;
+            this.rows = rows;
+        }
+    }
 }
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.tools;
+
+import com.facebook.presto.accumulo.conf.AccumuloConfig;
+import com.facebook.presto.accumulo.iterators.AbstractBooleanFilter;
+import com.facebook.presto.accumulo.iterators.AndFilter;
+import com.facebook.presto.accumulo.iterators.ReEncodingIterator;
+import com.facebook.presto.accumulo.iterators.SingleColumnValueFilter;
+import com.facebook.presto.accumulo.iterators.SingleColumnValueFilter.CompareOp;
+import com.google.common.collect.ImmutableList;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Instance;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.ZooKeeperInstance;
+import org.apache.accumulo.core.client.lexicoder.DoubleLexicoder;
+import org.apache.accumulo.core.client.lexicoder.LongLexicoder;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This task deletes the rows of a table that match a predicate without moving any data to the client, by compacting
+ * the table with a negated {@link AndFilter} of {@link SingleColumnValueFilter}s as a one-shot compaction iterator.
+ * A row is purged when every predicate holds, so a row missing a predicate's column is kept.
+ * <p>
+ * Predicate values are lexicoded so the comparisons follow the order of the type. A DATE value, e.g. 1995-01-01, is
+ * encoded as the epoch milliseconds of its midnight, the same as a java.sql.Date such as those written by the TPC-H
+ * examples, and a TIMESTAMP value, e.g. 1995-01-01 12:00:00, as its epoch milliseconds. Both are read in the given
+ * time zone, UTC by default rather than the zone of the JVM, which must be the zone the data was written in.
+ * <p>
+ * A dry run counts the rows that would be purged without compacting anything. The index tables are not purged, so
+ * their entries of the purged rows only point to rows that no longer exist.
+ */
+public class PurgeTask
+        extends Task
+{
+    public static final String TASK_NAME = "purge";
+    public static final String DESCRIPTION = "Deletes the rows of a table matching a predicate via major compactions";
+
+    private static final int ITERATOR_PRIORITY = 50;
+
+    private static final LongLexicoder LONG_LEXICODER = new LongLexicoder();
+    private static final DoubleLexicoder DOUBLE_LEXICODER = new DoubleLexicoder();
+
+    // Options
+    private static final char TABLE_OPT = 't';
+    private static final char PREDICATES_OPT = 'w';
+    private static final char NUM_SPLITS_PER_COMPACTION_OPT = 'j';
+    private static final char DRY_RUN_OPT = 'n';
+    private static final char TIME_ZONE_OPT = 'z';
+
+    // User-configured values
+    private AccumuloConfig config;
+    private String table;
+    private List<IteratorSetting> predicates;
+    private int numSplitsPerCompaction = 1;
+    private boolean dryRun = false;
+
+    public int exec()
+            throws Exception
+    {
+        // Validate the required parameters have been set
+        int numErrors = checkParam(config, "config");
+        numErrors += checkParam(table, "table");
+        numErrors += checkParam(predicates, "predicates");
+        if (numErrors > 0) {
+            return 1;
+        }
+
+        // Create the instance and the connector
+        Instance inst = new ZooKeeperInstance(config.getInstance(), config.getZooKeepers());
+        Connector connector = inst.getConnector(config.getUsername(), new PasswordToken(config.getPassword()));
+
+        if (!connector.tableOperations().exists(table)) {
+            System.err.println(format("Table %s does not exist", table));
+            return 1;
+        }
+
+        if (dryRun) {
+            long start = System.currentTimeMillis();
+            long numRows = countMatchingRows(connector);
+            System.out.println(format("%d rows of %s match %s, counted in %d ms", numRows, table, predicates, System.currentTimeMillis() - start));
+            return 0;
+        }
+
+        // Keep the rows that do not match, so the compaction drops the rows that do
+        IteratorSetting setting = AndFilter.andFilters(ITERATOR_PRIORITY, predicates);
+        AbstractBooleanFilter.setNegate(setting, true);
+
+        System.out.println(format("Purging rows of %s matching %s", table, predicates));
+        long start = System.currentTimeMillis();
+        compactInRanges(connector, table, ImmutableList.of(setting), numSplitsPerCompaction);
+
+        System.out.println(format("Purged %s in %d ms", table, System.currentTimeMillis() - start));
+        return 0;
+    }
+
+    /**
+     * Counts the rows that the purge would delete by scanning with the filter before it is negated
+     *
+     * @param connector Connector to scan with
+     * @return Number of matching rows
+     */
+    private long countMatchingRows(Connector connector)
+            throws Exception
+    {
+        Scanner scanner = connector.createScanner(table, connector.securityOperations().getUserAuthorizations(config.getUsername()));
+        try {
+            scanner.addScanIterator(AndFilter.andFilters(ITERATOR_PRIORITY, predicates));
+
+            long numRows = 0;
+            Text row = new Text();
+            Text previousRow = null;
+            for (Entry<Key, Value> entry : scanner) {
+                entry.getKey().getRow(row);
+                if (previousRow == null || !previousRow.equals(row)) {
+                    ++numRows;
+                    previousRow = new Text(row);
+                }
+            }
+            return numRows;
+        }
+        finally {
+            scanner.close();
+        }
+    }
+
+    @Override
+    public int run(AccumuloConfig config, CommandLine cmd)
+            throws Exception
+    {
+        this.setConfig(config);
+        this.setTable(cmd.getOptionValue(TABLE_OPT));
+
+        ZoneId zone = cmd.hasOption(TIME_ZONE_OPT) ? ZoneId.of(cmd.getOptionValue(TIME_ZONE_OPT)) : ZoneId.of("UTC");
+
+        List<IteratorSetting> predicates = new ArrayList<>();
+        for (String predicate : cmd.getOptionValues(PREDICATES_OPT)) {
+            predicates.add(parsePredicate(predicate, "predicate" + predicates.size(), zone));
+        }
+        this.setPredicates(predicates);
+
+        if (cmd.hasOption(NUM_SPLITS_PER_COMPACTION_OPT)) {
+            this.setNumSplitsPerCompaction(Integer.parseInt(cmd.getOptionValue(NUM_SPLITS_PER_COMPACTION_OPT)));
+        }
+
+        this.setDryRun(cmd.hasOption(DRY_RUN_OPT));
+        return this.exec();
+    }
+
+    /**
+     * Parses a predicate of the form family:qualifier:op:type:value, e.g. cf:orderdate:LESS:DATE:1995-01-01
+     *
+     * @param predicate Predicate to parse
+     * @param name Name of the filter
+     * @param zone Time zone of DATE and TIMESTAMP values
+     * @return Setting of the SingleColumnValueFilter for the predicate
+     */
+    private static IteratorSetting parsePredicate(String predicate, String name, ZoneId zone)
+    {
+        String[] tokens = predicate.split(":", 5);
+        if (tokens.length != 5) {
+            throw new IllegalArgumentException(format("Predicate %s is not of the form family:qualifier:op:type:value", predicate));
+        }
+
+        CompareOp op = CompareOp.valueOf(tokens[2].toUpperCase());
+        byte[] value = encode(ReEncodingIterator.Type.valueOf(tokens[3].toUpperCase()), tokens[4], zone);
+        return new IteratorSetting(ITERATOR_PRIORITY, name, SingleColumnValueFilter.class, SingleColumnValueFilter.getProperties(tokens[0], tokens[1], op, value));
+    }
+
+    private static byte[] encode(ReEncodingIterator.Type type, String value, ZoneId zone)
+    {
+        switch (type) {
+            case BOOLEAN:
+                return new byte[] {(byte) (Boolean.parseBoolean(value) ? 1 : 0)};
+            case DATE:
+                return LONG_LEXICODER.encode(LocalDate.parse(value).atStartOfDay(zone).toInstant().toEpochMilli());
+            case TIMESTAMP:
+                return LONG_LEXICODER.encode(LocalDateTime.parse(value.replace(' ', 'T')).atZone(zone).toInstant().toEpochMilli());
+            case DOUBLE:
+            case REAL:
+                return DOUBLE_LEXICODER.encode(Double.parseDouble(value));
+            case VARBINARY:
+            case VARCHAR:
+                return value.getBytes(UTF_8);
+            default:
+                return LONG_LEXICODER.encode(Long.parseLong(value));
+        }
+    }
+
+    public void setConfig(AccumuloConfig config)
+    {
+        this.config = config;
+    }
+
+    public void setTable(String table)
+    {
+        this.table = table;
+    }
+
+    public void setPredicates(List<IteratorSetting> predicates)
+    {
+        this.predicates = predicates;
+    }
+
+    public void setNumSplitsPerCompaction(int numSplitsPerCompaction)
+    {
+        if (numSplitsPerCompaction < 1) {
+            throw new IllegalArgumentException("Number of splits per compaction must be at least 1");
+        }
+        this.numSplitsPerCompaction = numSplitsPerCompaction;
+    }
+
+    public void setDryRun(boolean dryRun)
+    {
+        this.dryRun = dryRun;
+    }
+
+    @Override
+    public String getTaskName()
+    {
+        return TASK_NAME;
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return DESCRIPTION;
+    }
+
+    @SuppressWarnings("static-access")
+    @Override
+    public Options getOptions()
+    {
+        Options opts = new Options();
+        opts.addOption(
+                OptionBuilder
+                        .withLongOpt("table")
+                        .withDescription("Accumulo table to purge")
+                        .hasArg()
+                        .isRequired()
+                        .create(TABLE_OPT));
+        opts.addOption(
+                OptionBuilder
+                        .withLongOpt("where")
+                        .withDescription("List of family:qualifier:op:type:value predicates that must all hold for a row to be purged, where op is LESS, LESS_OR_EQUAL, EQUAL, NOT_EQUAL, GREATER_OR_EQUAL, or GREATER and type is a Presto type such as BIGINT, VARCHAR, DATE (yyyy-MM-dd, as the epoch milliseconds of its midnight), or TIMESTAMP (yyyy-MM-dd HH:mm:ss, as epoch milliseconds)")
+                        .hasArgs()
+                        .isRequired()
+                        .create(PREDICATES_OPT));
+        opts.addOption(
+                OptionBuilder
+                        .withLongOpt("num-splits-per-compaction")
+                        .withDescription("Number of tablets to compact at a time, default 1")
+                        .hasArg()
+                        .create(NUM_SPLITS_PER_COMPACTION_OPT));
+        opts.addOption(
+                OptionBuilder
+                        .withLongOpt("dry-run")
+                        .withDescription("Count the rows matching the predicates without purging them")
+                        .create(DRY_RUN_OPT));
+        opts.addOption(
+                OptionBuilder
+                        .withLongOpt("time-zone")
+                        .withDescription("Time zone of DATE and TIMESTAMP predicate values, which must be the zone the data was written in, default UTC")
+                        .hasArg()
+                        .create(TIME_ZONE_OPT));
+        return opts;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.tools;
+
+import com.facebook.presto.accumulo.conf.AccumuloConfig;
+import com.facebook.presto.accumulo.iterators.ReEncodingIterator;
+import com.facebook.presto.accumulo.iterators.ReEncodingIterator.Encoding;
+import com.google.common.collect.ImmutableList;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.Instance;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.ZooKeeperInstance;
+import org.apache.accumulo.core.client.security.tokens.PasswordToken;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+
+/**
+ * This task re-encodes the values of a table from one Presto row serializer to another in place, by compacting the
+ * table one range of tablets at a time with the {@link ReEncodingIterator} as a one-shot compaction iterator.
+ * Compacting in ranges bounds the load on the tablet servers and reports progress as each range completes. The
+ * iterator leaves values that are already re-encoded as is, so the task can be re-run after a failure.
+ * <p>
+ * Update the serializer of the Presto table once the task completes, as queries in the meantime see both encodings.
+ */
+public class ReEncodeTask
+        extends Task
+{
+    public static final String TASK_NAME = "re-encode";
+    public static final String DESCRIPTION = "Re-encodes the values of a table from one row serializer to another via major compactions";
+
+    private static final int ITERATOR_PRIORITY = 50;
+    private static final String ITERATOR_NAME = "reencode";
+
+    // Options
+    private static final char TABLE_OPT = 't';
+    private static final char COLUMNS_OPT = 'm';
+    private static final char SOURCE_OPT = 's';
+    private static final char TARGET_OPT = 'e';
+    private static final char NUM_SPLITS_PER_COMPACTION_OPT = 'j';
+
+    // User-configured values
+    private AccumuloConfig config;
+    private String table;
+    private Map<IteratorSetting.Column, ReEncodingIterator.Type> columns;
+    private Encoding source;
+    private Encoding target;
+    private int numSplitsPerCompaction = 1;
+
+    public int exec()
+            throws Exception
+    {
+        // Validate the required parameters have been set
+        int numErrors = checkParam(config, "config");
+        numErrors += checkParam(table, "table");
+        numErrors += checkParam(columns, "columns");
+        numErrors += checkParam(source, "source");
+        numErrors += checkParam(target, "target");
+        if (numErrors > 0) {
+            return 1;
+        }
+
+        // Create the instance and the connector
+        Instance inst = new ZooKeeperInstance(config.getInstance(), config.getZooKeepers());
+        Connector connector = inst.getConnector(config.getUsername(), new PasswordToken(config.getPassword()));
+
+        if (!connector.tableOperations().exists(table)) {
+            System.err.println(format("Table %s does not exist", table));
+            return 1;
+        }
+
+        IteratorSetting setting = new IteratorSetting(ITERATOR_PRIORITY, ITERATOR_NAME, ReEncodingIterator.class);
+        ReEncodingIterator.setEncodings(setting, columns, source, target);
+
+        System.out.println(format("Re-encoding %s from %s to %s", table, source, target));
+        long start = System.currentTimeMillis();
+        compactInRanges(connector, table, ImmutableList.of(setting), numSplitsPerCompaction);
+
+        System.out.println(format("Re-encoded %s in %d ms, set the serializer of the Presto table to match %s", table, System.currentTimeMillis() - start, target));
+        return 0;
+    }
+
+    @Override
+    public int run(AccumuloConfig config, CommandLine cmd)
+            throws Exception
+    {
+        this.setConfig(config);
+        this.setTable(cmd.getOptionValue(TABLE_OPT));
+        this.setColumns(parseColumns(cmd.getOptionValue(COLUMNS_OPT)));
+        this.setSource(Encoding.valueOf(cmd.getOptionValue(SOURCE_OPT).toUpperCase()));
+        this.setTarget(Encoding.valueOf(cmd.getOptionValue(TARGET_OPT).toUpperCase()));
+        if (cmd.hasOption(NUM_SPLITS_PER_COMPACTION_OPT)) {
+            this.setNumSplitsPerCompaction(Integer.parseInt(cmd.getOptionValue(NUM_SPLITS_PER_COMPACTION_OPT)));
+        }
+        return this.exec();
+    }
+
+    private static Map<IteratorSetting.Column, ReEncodingIterator.Type> parseColumns(String value)
+    {
+        Map<IteratorSetting.Column, ReEncodingIterator.Type> columns = new LinkedHashMap<>();
+        for (String column : value.split(",")) {
+            String[] tokens = column.split(":");
+            if (tokens.length != 3) {
+                throw new IllegalArgumentException(format("Column %s is not of the form family:qualifier:type", column));
+            }
+            columns.put(new IteratorSetting.Column(tokens[0], tokens[1]), ReEncodingIterator.Type.valueOf(tokens[2].toUpperCase()));
+        }
+        return columns;
+    }
+
+    public void setConfig(AccumuloConfig config)
+    {
+        this.config = config;
+    }
+
+    public void setTable(String table)
+    {
+        this.table = table;
+    }
+
+    public void setColumns(Map<IteratorSetting.Column, ReEncodingIterator.Type> columns)
+    {
+        this.columns = columns;
+    }
+
+    public void setSource(Encoding source)
+    {
+        this.source = source;
+    }
+
+    public void setTarget(Encoding target)
+    {
+        this.target = target;
+    }
+
+    public void setNumSplitsPerCompaction(int numSplitsPerCompaction)
+    {
+        if (numSplitsPerCompaction < 1) {
+            throw new IllegalArgumentException("Number of splits per compaction must be at least 1");
+        }
+        this.numSplitsPerCompaction = numSplitsPerCompaction;
+    }
+
+    @Override
+    public String getTaskName()
+    {
+        return TASK_NAME;
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return DESCRIPTION;
+    }
+
+    @SuppressWarnings("static-access")
+    @Override
+    public Options getOptions()
+    {
+        Options opts = new Options();
+        opts.addOption(
+                OptionBuilder
+                        .withLongOpt("table")
+                        .withDescription("Accumulo table to re-encode")
+                        .hasArg()
+                        .isRequired()
+                        .create(TABLE_OPT));
+        opts.addOption(
+                OptionBuilder
+                        .withLongOpt("columns")
+                        .withDescription("Comma-delimited list of family:qualifier:type columns to re-encode, where type is a Presto type such as BIGINT or DOUBLE")
+                        .hasArg()
+                        .isRequired()
+                        .create(COLUMNS_OPT));
+        opts.addOption(
+                OptionBuilder
+                        .withLongOpt("source-encoding")
+                        .withDescription("Current encoding of the values, STRING or LEXICODER")
+                        .hasArg()
+                        .isRequired()
+                        .create(SOURCE_OPT));
+        opts.addOption(
+                OptionBuilder
+                        .withLongOpt("target-encoding")
+                        .withDescription("New encoding of the values, STRING or LEXICODER")
+                        .hasArg()
+                        .isRequired()
+                        .create(TARGET_OPT));
+        opts.addOption(
+                OptionBuilder
+                        .withLongOpt("num-splits-per-compaction")
+                        .withDescription("Number of tablets to compact at a time, default 1")
+                        .hasArg()
+                        .create(NUM_SPLITS_PER_COMPACTION_OPT));
+        return opts;
+    }
+}
@@ -16,8 +16,14 @@
 package com.facebook.presto.accumulo.tools;
 
 import com.facebook.presto.accumulo.conf.AccumuloConfig;
+import org.apache.accumulo.core.client.Connector;
+import org.apache.accumulo.core.client.IteratorSetting;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Options;
+import org.apache.hadoop.io.Text;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import static java.lang.String.format;
 
@@ -80,4 +86,45 @@ public abstract class Task
         }
         return 0;
     }
+
+    /**
+     * Compacts a table a range of tablets at a time with the given one-shot compaction iterators, printing the progress
+     * after each range. The tablets of a range are compacted concurrently by the tablet servers, so the number of
+     * tablets per range bounds the load of the compactions.
+     *
+     * @param connector
+     *            Accumulo connector
+     * @param table
+     *            Table to compact
+     * @param iterators
+     *            Compaction iterators
+     * @param numSplitsPerCompaction
+     *            Number of tablets to compact at a time
+     * @throws Exception
+     */
+    protected void compactInRanges(Connector connector, String table, List<IteratorSetting> iterators, int numSplitsPerCompaction)
+            throws Exception
+    {
+        // Each range is (start, end], the end row of the last tablet to compact
+        List<Text> splits = new ArrayList<>(connector.tableOperations().listSplits(table));
+        List<Text> endRows = new ArrayList<>();
+        for (int i = numSplitsPerCompaction - 1; i < splits.size(); i += numSplitsPerCompaction) {
+            endRows.add(splits.get(i));
+        }
+        endRows.add(null);
+
+        System.out.println(format("Compacting %s in %d ranges of %d tablets", table, endRows.size(), numSplitsPerCompaction));
+
+        long start = System.currentTimeMillis();
+        Text startRow = null;
+        for (int i = 0; i < endRows.size(); ++i) {
+            Text endRow = endRows.get(i);
+            connector.tableOperations().compact(table, startRow, endRow, iterators, true, true);
+
+            long elapsed = System.currentTimeMillis() - start;
+            System.out.println(format("Compacted %d of %d ranges (%.1f%%), %d ms elapsed, about %d ms remaining", i + 1, endRows.size(),
+                    100.0 * (i + 1) / endRows.size(), elapsed, elapsed * (endRows.size() - i - 1) / (i + 1)));
+            startRow = endRow;
+        }
+    }
 }
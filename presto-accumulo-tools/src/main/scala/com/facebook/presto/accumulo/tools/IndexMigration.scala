@@ -30,6 +30,7 @@ import com.facebook.presto.accumulo.index.Indexer.Destination.{INDEX, METRIC}
 import com.facebook.presto.accumulo.index.metrics.AccumuloMetricsStorage.{CARDINALITY_CF, CARDINALITY_CQ}
 import com.facebook.presto.accumulo.index.metrics.MetricsStorage.{METRICS_TABLE_ROWS_COLUMN, METRICS_TABLE_ROW_ID}
 import com.facebook.presto.accumulo.index.storage.ShardedIndexStorage
+import com.facebook.presto.accumulo.iterators.{HeavyHitters, NGramIndex, SpaceSavingSketch}
 import com.facebook.presto.accumulo.metadata.ZooKeeperMetadataManager
 import com.facebook.presto.accumulo.tools.MultiOutputRDD._
 import com.facebook.presto.spi.SchemaTableName
@@ -40,8 +41,8 @@ import com.google.common.primitives.Bytes
 import org.apache.accumulo.core.client.mapreduce.lib.impl.{ConfiguratorBase, InputConfigurator}
 import org.apache.accumulo.core.client.mapreduce.{AccumuloFileOutputFormat, AccumuloInputFormat}
 import org.apache.accumulo.core.client.security.tokens.PasswordToken
-import org.apache.accumulo.core.client.{ClientConfiguration, Connector, ZooKeeperInstance}
-import org.apache.accumulo.core.data.{ColumnUpdate, Key, Mutation, Value, Range => AccumuloRange}
+import org.apache.accumulo.core.client.{ClientConfiguration, Connector, IteratorSetting, ZooKeeperInstance}
+import org.apache.accumulo.core.data.{ArrayByteSequence, ColumnUpdate, Key, Mutation, Value, Range => AccumuloRange}
 import org.apache.accumulo.core.iterators.LongCombiner
 import org.apache.accumulo.core.iterators.LongCombiner.FixedLenEncoder
 import org.apache.accumulo.core.security.Authorizations
@@ -84,6 +85,8 @@ class IndexMigration extends Task with Serializable {
   private val WORK_DIR_OPT: Char = 'w'
   private val OFFLINE_OPT: Char = 'o'
   private val NUM_SPLITS_PER_JOB_OPT: Char = 'j'
+  private val NGRAM_COLUMNS_OPT: Char = 'g'
+  private val HEAVY_HITTERS_OPT: Char = 'k'
   private val EMPTY_BYTES: Array[Byte] = new Array[Byte](0)
 
   private var spark: Option[SparkSession] = None
@@ -127,6 +130,16 @@ class IndexMigration extends Task with Serializable {
     OptionBuilder.hasArg
     opts.addOption(OptionBuilder.create(NUM_SPLITS_PER_JOB_OPT))
 
+    OptionBuilder.withLongOpt("ngram-columns")
+    OptionBuilder.withDescription("Comma-delimited list of family:qualifier VARCHAR columns to tokenize into the n-gram substring index table <dest-table>_ngram")
+    OptionBuilder.hasArg
+    opts.addOption(OptionBuilder.create(NGRAM_COLUMNS_OPT))
+
+    OptionBuilder.withLongOpt("heavy-hitters-capacity")
+    OptionBuilder.withDescription("Number of most frequent values of each index column to track in the heavy hitters sketch of the <dest-table>_metrics table, disabled by default")
+    OptionBuilder.hasArg
+    opts.addOption(OptionBuilder.create(HEAVY_HITTERS_OPT))
+
     opts
   }
 
@@ -174,8 +187,24 @@ class IndexMigration extends Task with Serializable {
       -1
     }
 
+    val ngramColumns = if (cmd.hasOption(NGRAM_COLUMNS_OPT)) {
+      cmd.getOptionValue(NGRAM_COLUMNS_OPT).split(",").map(column => {
+        val familyQualifier = column.split(":")
+        checkState(familyQualifier.length == 2, "n-gram column %s is not of the form family:qualifier", column)
+        (familyQualifier(0), familyQualifier(1))
+      }).toList
+    } else {
+      Nil
+    }
+
+    val heavyHittersCapacity = if (cmd.hasOption(HEAVY_HITTERS_OPT)) {
+      cmd.getOptionValue(HEAVY_HITTERS_OPT).toInt
+    } else {
+      0
+    }
+
     val isOfflineScan = cmd.hasOption(OFFLINE_OPT)
-    exec(conf, instance, zooKeepers, username, password, srcTableName, destTableName, auths, numPartitions, isOfflineScan, workDir, numSplitsPerJob)
+    exec(conf, instance, zooKeepers, username, password, srcTableName, destTableName, auths, numPartitions, isOfflineScan, workDir, numSplitsPerJob, ngramColumns, heavyHittersCapacity)
   }
 
   @VisibleForTesting
@@ -206,11 +235,63 @@ class IndexMigration extends Task with Serializable {
             isOfflineScan: Boolean,
             workDir: String,
             numSplitsPerJob: Int): Int = {
+    exec(conf, instance, zooKeepers, username, password, srcTableName, destTableName, auths, numPartitions, isOfflineScan, workDir, numSplitsPerJob, Nil)
+  }
+
+  def exec(
+            conf: AccumuloConfig,
+            instance: String,
+            zooKeepers: String,
+            username: String,
+            password: String,
+            srcTableName: String,
+            destTableName: String,
+            auths: Authorizations,
+            numPartitions: Int,
+            isOfflineScan: Boolean,
+            workDir: String,
+            numSplitsPerJob: Int,
+            ngramColumns: List[(String, String)]): Int = {
+    exec(conf, instance, zooKeepers, username, password, srcTableName, destTableName, auths, numPartitions, isOfflineScan, workDir, numSplitsPerJob, ngramColumns, 0)
+  }
+
+  def exec(
+            conf: AccumuloConfig,
+            instance: String,
+            zooKeepers: String,
+            username: String,
+            password: String,
+            srcTableName: String,
+            destTableName: String,
+            auths: Authorizations,
+            numPartitions: Int,
+            isOfflineScan: Boolean,
+            workDir: String,
+            numSplitsPerJob: Int,
+            ngramColumns: List[(String, String)],
+            heavyHittersCapacity: Int): Int = {
     val connector = new ZooKeeperInstance(instance, zooKeepers).getConnector(username, new PasswordToken(password))
 
     checkState(connector.tableOperations().exists(srcTableName), "source table %s does not exist", srcTableName)
     checkState(connector.tableOperations().exists(destTableName), "destination table %s does not exist, create the Presto table and Accumulo tables", destTableName)
 
+    if (ngramColumns.nonEmpty) {
+      val ngramTableName = NGramIndex.getIndexTableName(destTableName)
+      checkState(connector.tableOperations().exists(ngramTableName), "n-gram index table %s does not exist", ngramTableName)
+    }
+
+    if (heavyHittersCapacity > 0) {
+      // Merge the sketches written by each partition, attaching the combiner before any are imported
+      val metricsTableName = HeavyHitters.getMetricsTableName(destTableName)
+      checkState(connector.tableOperations().exists(metricsTableName), "metrics table %s does not exist", metricsTableName)
+
+      val table = new ZooKeeperMetadataManager(conf, new TypeRegistry()).getTable(getSchemaTableName(destTableName))
+      val columns = table.getColumns.asScala
+        .filter(column => column.getFamily.isPresent && column.getQualifier.isPresent)
+        .map(column => new IteratorSetting.Column(column.getFamily.get, column.getQualifier.get))
+      HeavyHitters.attachCombiner(connector, metricsTableName, columns.asJava)
+    }
+
 
     val compactionRanges = scala.collection.mutable.ListBuffer[AccumuloRange]()
 
@@ -247,7 +328,7 @@ class IndexMigration extends Task with Serializable {
     val spark = getSparkSession
 
     for (range <- compactionRanges) {
-      runSparkJob(spark, range, connector, instance, zooKeepers, username, password, srcTableName, destTableName, auths, numPartitions, isOfflineScan, workDir)
+      runSparkJob(spark, range, connector, instance, zooKeepers, username, password, srcTableName, destTableName, auths, numPartitions, isOfflineScan, workDir, ngramColumns, heavyHittersCapacity)
     }
 
     spark.stop()
@@ -267,7 +348,9 @@ class IndexMigration extends Task with Serializable {
                    auths: Authorizations,
                    numPartitions: Int,
                    isOfflineScan: Boolean,
-                   workDir: String): Unit = {
+                   workDir: String,
+                   ngramColumns: List[(String, String)],
+                   heavyHittersCapacity: Int): Unit = {
     val jobConf = new Configuration()
 
     val clientConfig = new ClientConfiguration()
@@ -286,7 +369,7 @@ class IndexMigration extends Task with Serializable {
     spark.sparkContext.newAPIHadoopRDD(jobConf, classOf[AccumuloInputFormat], classOf[Key], classOf[Value])
       .repartition(numPartitions)
       .groupBy(entry => entry._1.getRow)
-      .mapPartitions(partition => mapPartition(instance, zooKeepers, username, password, destTableName, partition))
+      .mapPartitions(partition => mapPartition(instance, zooKeepers, username, password, destTableName, ngramColumns, heavyHittersCapacity, partition))
       .sortBy(key => key._2._1)
       .saveAsMultiTextFiles(workDir)
 
@@ -307,13 +390,8 @@ class IndexMigration extends Task with Serializable {
     fs.delete(outputPath, true)
   }
 
-  def mapPartition(instance: String, zooKeepers: String, username: String, password: String, destTableName: String, partition: Iterator[(Text, Iterable[(Key, Value)])]): Iterator[(String, (Key, Value))] = {
-    val schemaTableName =
-      if (destTableName.contains(".")) {
-        new SchemaTableName(destTableName.split("\\.")(0), destTableName.split("\\.")(1))
-      } else {
-        new SchemaTableName("default", destTableName)
-      }
+  def mapPartition(instance: String, zooKeepers: String, username: String, password: String, destTableName: String, ngramColumns: List[(String, String)], heavyHittersCapacity: Int, partition: Iterator[(Text, Iterable[(Key, Value)])]): Iterator[(String, (Key, Value))] = {
+    val schemaTableName = getSchemaTableName(destTableName)
 
     val accumuloConfig = new AccumuloConfig()
     accumuloConfig.setInstance(instance)
@@ -330,6 +408,9 @@ class IndexMigration extends Task with Serializable {
     import scala.collection.JavaConversions._
     val keyValues = new ListBuffer[(String, (Key, Value))]()
 
+    // Sketch of the index values of each index column, keyed by the index column family
+    val sketches = scala.collection.mutable.HashMap[ByteBuffer, SpaceSavingSketch]()
+
     var numRows = 0L
     val cf = new Text
     val cq = new Text
@@ -343,6 +424,14 @@ class IndexMigration extends Task with Serializable {
         mutation.put(cf, cq, entry._1.getColumnVisibilityParsed, entry._1.getTimestamp, entry._2)
 
         keyValues.add(("%s/%s".format(destTableName, "data"), (new Key(row._1.getBytes, cf.copyBytes(), cq.copyBytes(), entry._1.getColumnVisibility.copyBytes(), entry._1.getTimestamp, false, true), entry._2)))
+
+        // Tokenize the value into the n-gram index, co-locating all n-grams of this row in one shard
+        if (ngramColumns.contains((cf.toString, cq.toString))) {
+          val shard = NGramIndex.getShard(row._1.copyBytes(), NGramIndex.DEFAULT_NUM_SHARDS).copyBytes()
+          for (ngram <- NGramIndex.getNGrams(entry._2.get(), NGramIndex.DEFAULT_NGRAM_SIZE).asScala) {
+            keyValues.add(("%s/%s".format(NGramIndex.getIndexTableName(destTableName), "data"), (new Key(shard, NGramIndex.getIndexFamily(cf.copyBytes(), cq.copyBytes(), ngram), row._1.copyBytes(), entry._1.getColumnVisibility.copyBytes(), entry._1.getTimestamp, false, true), new Value)))
+          }
+        }
       })
 
       // Convert the list of updates into a data structure we can use for indexing
@@ -358,6 +447,10 @@ class IndexMigration extends Task with Serializable {
 
         for (indexValue <- indexColumnUpdates.get(INDEX)) {
           var rowBytes = indexValue.getColumnQualifier
+          if (heavyHittersCapacity > 0) {
+            sketches.getOrElseUpdate(wrap(indexValue.getColumnFamily), new SpaceSavingSketch(heavyHittersCapacity)).add(new ArrayByteSequence(rowBytes))
+          }
+
           for (storage <- indexColumn.getIndexStorageMethods.asScala.filter(x => x.isInstanceOf[ShardedIndexStorage])) {
             rowBytes = storage.encode(rowBytes)
           }
@@ -393,9 +486,23 @@ class IndexMigration extends Task with Serializable {
       keyValues.add(("%s/%s".format(destTableName + "_metrics", "data"), (countKey, countValue)))
     }
 
+    // Add the heavy hitters of each index column, which the combiner merges with those of the other partitions
+    for ((family, sketch) <- sketches) {
+      val sketchKey: Key = HeavyHitters.getKey(family.array(), System.currentTimeMillis())
+      keyValues.add(("%s/%s".format(HeavyHitters.getMetricsTableName(destTableName), "data"), (sketchKey, new Value(sketch.toBytes))))
+    }
+
     keyValues.iterator
   }
 
+  private def getSchemaTableName(destTableName: String): SchemaTableName = {
+    if (destTableName.contains(".")) {
+      new SchemaTableName(destTableName.split("\\.")(0), destTableName.split("\\.")(1))
+    } else {
+      new SchemaTableName("default", destTableName)
+    }
+  }
+
   private def encodeBytes(ba: Array[Byte]) = {
     val sb = new StringBuilder
     for (b <- ba) {
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestSpaceSavingSketch
+{
+    @Test
+    public void testExactWhenNotFull()
+            throws Exception
+    {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(10);
+        add(sketch, "a", 5);
+        add(sketch, "b", 3);
+        add(sketch, "c", 1);
+
+        assertEquals(sketch.estimate(value("a")), 5);
+        assertEquals(sketch.estimate(value("b")), 3);
+        assertEquals(sketch.estimate(value("c")), 1);
+        assertEquals(sketch.estimate(value("d")), 0);
+        assertEquals(sketch.getMinCount(), 0);
+
+        List<SpaceSavingSketch.Counter> top = sketch.getTopK(2);
+        assertEquals(top.size(), 2);
+        assertEquals(top.get(0).getValue(), bytes("a"));
+        assertEquals(top.get(0).getCount(), 5);
+        assertEquals(top.get(0).getError(), 0);
+        assertEquals(top.get(1).getValue(), bytes("b"));
+        assertEquals(top.get(1).getCount(), 3);
+    }
+
+    @Test
+    public void testUpperBound()
+            throws Exception
+    {
+        Random random = new Random(1);
+        Map<String, Long> counts = new HashMap<>();
+        SpaceSavingSketch sketch = new SpaceSavingSketch(20);
+        for (int i = 0; i < 10000; ++i) {
+            // Skewed values, so the heavy hitters stand out from a long tail
+            String value = Integer.toString((int) Math.pow(1000, random.nextDouble()));
+            counts.merge(value, 1L, Long::sum);
+            sketch.add(value(value));
+        }
+
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            assertTrue(sketch.estimate(value(entry.getKey())) >= entry.getValue(), entry.getKey());
+        }
+
+        for (SpaceSavingSketch.Counter counter : sketch.getTopK(20)) {
+            long count = counts.get(new String(counter.getValue(), UTF_8));
+            assertTrue(counter.getCount() >= count);
+            assertTrue(counter.getCount() - counter.getError() <= count);
+        }
+        assertEquals(sketch.getTopK(1).get(0).getValue(), bytes("1"));
+    }
+
+    @Test
+    public void testMergeDifferentCapacities()
+            throws Exception
+    {
+        // The small sketch drops x, which may have occurred as many times as its smallest count
+        SpaceSavingSketch small = new SpaceSavingSketch(2);
+        add(small, "x", 3);
+        add(small, "y", 3);
+        add(small, "z", 1);
+        assertEquals(small.getMinCount(), 3);
+
+        SpaceSavingSketch large = new SpaceSavingSketch(10);
+        add(large, "w", 2);
+
+        SpaceSavingSketch union = SpaceSavingSketch.union(ImmutableList.of(large, small));
+        assertEquals(union.getCapacity(), 10);
+        assertEquals(union.getTopK(10).size(), 3);
+        assertEquals(union.getErrorFloor(), 3);
+        assertEquals(union.getMinCount(), 3);
+        assertTrue(union.estimate(value("x")) >= 3);
+        assertTrue(union.estimate(value("w")) >= 2);
+
+        // A value added after the merge is counted from the error floor
+        add(union, "x", 1);
+        assertTrue(union.estimate(value("x")) >= 4);
+    }
+
+    @Test
+    public void testSerialization()
+            throws Exception
+    {
+        SpaceSavingSketch small = new SpaceSavingSketch(2);
+        add(small, "x", 3);
+        add(small, "y", 3);
+        add(small, "z", 1);
+
+        SpaceSavingSketch sketch = new SpaceSavingSketch(5);
+        sketch.addAll(small);
+        add(sketch, "a", 7);
+
+        SpaceSavingSketch copy = SpaceSavingSketch.fromBytes(sketch.toBytes());
+        assertEquals(copy.getCapacity(), sketch.getCapacity());
+        assertEquals(copy.getErrorFloor(), sketch.getErrorFloor());
+        assertEquals(copy.getMinCount(), sketch.getMinCount());
+
+        List<SpaceSavingSketch.Counter> expected = sketch.getTopK(5);
+        List<SpaceSavingSketch.Counter> actual = copy.getTopK(5);
+        assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(actual.get(i).getValue(), expected.get(i).getValue());
+            assertEquals(actual.get(i).getCount(), expected.get(i).getCount());
+            assertEquals(actual.get(i).getError(), expected.get(i).getError());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidCapacity()
+    {
+        new SpaceSavingSketch(0);
+    }
+
+    private static void add(SpaceSavingSketch sketch, String value, long count)
+    {
+        sketch.add(value(value), count);
+    }
+
+    private static ByteSequence value(String value)
+    {
+        return new ArrayByteSequence(bytes(value));
+    }
+
+    private static byte[] bytes(String s)
+    {
+        return s.getBytes(UTF_8);
+    }
+}
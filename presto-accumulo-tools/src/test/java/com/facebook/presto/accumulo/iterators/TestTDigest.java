@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.facebook.presto.accumulo.iterators.TDigest.DEFAULT_COMPRESSION;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestTDigest
+{
+    private static final int NUM_VALUES = 10000;
+
+    @Test
+    public void testEmpty()
+    {
+        TDigest digest = new TDigest(DEFAULT_COMPRESSION);
+        assertEquals(digest.getTotalWeight(), 0.0);
+        assertTrue(Double.isNaN(digest.quantile(0.5)));
+        assertTrue(Double.isNaN(digest.cdf(0)));
+    }
+
+    @Test
+    public void testQuantiles()
+    {
+        TDigest digest = new TDigest(DEFAULT_COMPRESSION);
+        for (int i = 0; i < NUM_VALUES; ++i) {
+            digest.add(i);
+        }
+
+        assertEquals(digest.getTotalWeight(), (double) NUM_VALUES);
+        assertEquals(digest.getMin(), 0.0);
+        assertEquals(digest.getMax(), NUM_VALUES - 1.0);
+        assertQuantiles(digest);
+    }
+
+    @Test
+    public void testUnion()
+            throws Exception
+    {
+        // Interleave the values across the digests, as the tablets of a table would split them
+        List<TDigest> digests = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            digests.add(new TDigest(DEFAULT_COMPRESSION));
+        }
+
+        for (int i = 0; i < NUM_VALUES; ++i) {
+            digests.get(i % 10).add(i);
+        }
+
+        List<TDigest> copies = new ArrayList<>();
+        for (TDigest digest : digests) {
+            copies.add(TDigest.fromBytes(digest.toBytes()));
+        }
+
+        TDigest union = TDigest.union(copies);
+        assertEquals(union.getCompression(), DEFAULT_COMPRESSION);
+        assertEquals(union.getTotalWeight(), (double) NUM_VALUES);
+        assertEquals(union.getMin(), 0.0);
+        assertEquals(union.getMax(), NUM_VALUES - 1.0);
+        assertQuantiles(union);
+    }
+
+    @Test
+    public void testSerialization()
+            throws Exception
+    {
+        TDigest digest = new TDigest(50);
+        for (int i = 0; i < NUM_VALUES; ++i) {
+            digest.add(i * i);
+        }
+
+        TDigest copy = TDigest.fromBytes(digest.toBytes());
+        assertEquals(copy.getCompression(), digest.getCompression());
+        assertEquals(copy.getTotalWeight(), digest.getTotalWeight());
+        assertEquals(copy.getMin(), digest.getMin());
+        assertEquals(copy.getMax(), digest.getMax());
+        for (double q = 0; q <= 1; q += 0.1) {
+            assertEquals(copy.quantile(q), digest.quantile(q), 1e-9);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidCompression()
+    {
+        new TDigest(5);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidQuantile()
+    {
+        new TDigest(DEFAULT_COMPRESSION).quantile(1.5);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNaN()
+    {
+        new TDigest(DEFAULT_COMPRESSION).add(Double.NaN);
+    }
+
+    private static void assertQuantiles(TDigest digest)
+    {
+        assertEquals(digest.quantile(0), 0.0);
+        assertEquals(digest.quantile(1), NUM_VALUES - 1.0);
+        assertEquals(digest.cdf(-1), 0.0);
+        assertEquals(digest.cdf(NUM_VALUES), 1.0);
+
+        // The values are uniform, so the value at each quantile is about the quantile times their count
+        for (double q : new double[] {0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999}) {
+            assertEquals(digest.quantile(q), q * NUM_VALUES, 0.01 * NUM_VALUES, "quantile " + q);
+            assertEquals(digest.cdf(q * NUM_VALUES), q, 0.01, "cdf " + q);
+        }
+    }
+}
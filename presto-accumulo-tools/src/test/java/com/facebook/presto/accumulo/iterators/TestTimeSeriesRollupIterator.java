@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.iterators;
+
+import com.facebook.presto.accumulo.iterators.TimeSeriesRollupIterator.Aggregate;
+import com.facebook.presto.accumulo.iterators.TimeSeriesRollupIterator.Granularity;
+import com.google.common.collect.ImmutableList;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.lexicoder.LongLexicoder;
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.SortedMapIterator;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+import org.testng.annotations.Test;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestTimeSeriesRollupIterator
+{
+    private static final LongLexicoder LEXICODER = new LongLexicoder();
+
+    // Start of an hour long before the cutoff
+    private static final long BUCKET = TimeUnit.HOURS.toMillis(1000);
+
+    @Test
+    public void testRollup()
+            throws Exception
+    {
+        TreeMap<Key, Value> cells = new TreeMap<>();
+        cells.put(key(BUCKET + 5), number(10));
+        cells.put(key(BUCKET + 3), number(30));
+        cells.put(key(BUCKET + 1), number(20));
+        cells.put(key(BUCKET - 1), number(5));
+
+        List<Entry<Key, Value>> output = rollup(cells, IteratorScope.majc);
+        assertEquals(output.size(), 2);
+        assertAggregate(output.get(0), BUCKET + 1, 3, 60, 10, 30);
+        assertAggregate(output.get(1), BUCKET - 1, 1, 5, 5, 5);
+    }
+
+    @Test
+    public void testDeleteInBucket()
+            throws Exception
+    {
+        TreeMap<Key, Value> cells = new TreeMap<>();
+        cells.put(key(BUCKET + 5), number(10));
+        Key delete = key(BUCKET + 3);
+        delete.setDeleted(true);
+        cells.put(delete, new Value(new byte[0]));
+        cells.put(key(BUCKET + 1), number(20));
+
+        // The delete marker splits the bucket into two aggregates that sort around it
+        List<Entry<Key, Value>> output = rollup(cells, IteratorScope.majc);
+        assertEquals(output.size(), 3);
+        assertAggregate(output.get(0), BUCKET + 5, 1, 10, 10, 10);
+        assertTrue(output.get(1).getKey().isDeleted());
+        assertEquals(output.get(1).getKey().getTimestamp(), BUCKET + 3);
+        assertAggregate(output.get(2), BUCKET + 1, 1, 20, 20, 20);
+
+        // Once the delete marker is gone, a later compaction merges the aggregates of the bucket
+        TreeMap<Key, Value> compacted = new TreeMap<>();
+        compacted.put(output.get(0).getKey(), output.get(0).getValue());
+        compacted.put(output.get(2).getKey(), output.get(2).getValue());
+        output = rollup(compacted, IteratorScope.majc);
+        assertEquals(output.size(), 1);
+        assertAggregate(output.get(0), BUCKET + 1, 2, 30, 10, 20);
+    }
+
+    @Test
+    public void testNonNumericInBucket()
+            throws Exception
+    {
+        TreeMap<Key, Value> cells = new TreeMap<>();
+        cells.put(key(BUCKET + 5), number(10));
+        cells.put(key(BUCKET + 3), new Value("abc".getBytes(UTF_8)));
+        cells.put(key(BUCKET + 1), number(20));
+
+        List<Entry<Key, Value>> output = rollup(cells, IteratorScope.majc);
+        assertEquals(output.size(), 3);
+        assertAggregate(output.get(0), BUCKET + 5, 1, 10, 10, 10);
+        assertEquals(output.get(1).getKey().getTimestamp(), BUCKET + 3);
+        assertEquals(output.get(1).getValue().toString(), "abc");
+        assertAggregate(output.get(2), BUCKET + 1, 1, 20, 20, 20);
+    }
+
+    @Test
+    public void testScanPassesThrough()
+            throws Exception
+    {
+        TreeMap<Key, Value> cells = new TreeMap<>();
+        cells.put(key(BUCKET + 5), number(10));
+        cells.put(key(BUCKET + 1), number(20));
+
+        List<Entry<Key, Value>> output = rollup(cells, IteratorScope.scan);
+        assertEquals(output.size(), 2);
+        assertFalse(TimeSeriesRollupIterator.isAggregate(output.get(0).getValue()));
+        assertFalse(TimeSeriesRollupIterator.isAggregate(output.get(1).getValue()));
+    }
+
+    private static List<Entry<Key, Value>> rollup(TreeMap<Key, Value> cells, IteratorScope scope)
+            throws Exception
+    {
+        IteratorSetting setting = new IteratorSetting(20, TimeSeriesRollupIterator.class);
+        TimeSeriesRollupIterator.setRollup(setting, ImmutableList.of(new IteratorSetting.Column("cf", "cq")), 0, Granularity.HOUR, TimeSeriesRollupIterator.Type.BIGINT);
+
+        TimeSeriesRollupIterator iterator = new TimeSeriesRollupIterator();
+        iterator.init(new SortedMapIterator(cells), setting.getOptions(), new Environment(scope));
+        iterator.seek(new Range(), ImmutableList.<ByteSequence>of(), false);
+
+        // The output of a major compaction must be sorted for the RFile writer to accept it
+        List<Entry<Key, Value>> output = new ArrayList<>();
+        while (iterator.hasTop()) {
+            Key key = new Key(iterator.getTopKey());
+            if (!output.isEmpty()) {
+                assertTrue(output.get(output.size() - 1).getKey().compareTo(key) <= 0, "Out of order key " + key);
+            }
+            output.add(new SimpleImmutableEntry<>(key, new Value(iterator.getTopValue())));
+            iterator.next();
+        }
+        return output;
+    }
+
+    private static void assertAggregate(Entry<Key, Value> entry, long timestamp, long count, long sum, long min, long max)
+            throws Exception
+    {
+        assertEquals(entry.getKey().getTimestamp(), timestamp);
+        assertTrue(TimeSeriesRollupIterator.isAggregate(entry.getValue()));
+        Aggregate aggregate = TimeSeriesRollupIterator.decodeAggregate(entry.getValue());
+        assertEquals(aggregate.getCount(), count);
+        assertEquals(aggregate.getSum().longValue(), sum);
+        assertEquals(aggregate.getMin().longValue(), min);
+        assertEquals(aggregate.getMax().longValue(), max);
+    }
+
+    private static Key key(long timestamp)
+    {
+        return new Key(new Text("row"), new Text("cf"), new Text("cq"), timestamp);
+    }
+
+    private static Value number(long value)
+    {
+        return new Value(LEXICODER.encode(value));
+    }
+
+    private static class Environment
+            implements IteratorEnvironment
+    {
+        private final IteratorScope scope;
+
+        public Environment(IteratorScope scope)
+        {
+            this.scope = scope;
+        }
+
+        @Override
+        public SortedKeyValueIterator<Key, Value> reserveMapFileReader(String mapFileName)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AccumuloConfiguration getConfig()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public IteratorScope getIteratorScope()
+        {
+            return scope;
+        }
+
+        @Override
+        public boolean isFullMajorCompaction()
+        {
+            return false;
+        }
+
+        @Override
+        public void registerSideChannel(SortedKeyValueIterator<Key, Value> iterator)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Authorizations getAuthorizations()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -20,6 +20,9 @@ import com.facebook.presto.accumulo.index.metrics.MetricCacheKey;
 import com.facebook.presto.accumulo.index.metrics.MetricsStorage;
 import com.facebook.presto.accumulo.index.storage.ShardedIndexStorage;
 import com.facebook.presto.accumulo.io.PrestoBatchWriter;
+import com.facebook.presto.accumulo.iterators.HeavyHitters;
+import com.facebook.presto.accumulo.iterators.NGramIndex;
+import com.facebook.presto.accumulo.iterators.SpaceSavingSketch;
 import com.facebook.presto.accumulo.metadata.AccumuloTable;
 import com.facebook.presto.accumulo.metadata.ZooKeeperMetadataManager;
 import com.facebook.presto.accumulo.model.AccumuloColumnHandle;
@@ -55,10 +58,15 @@ import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
+import scala.Tuple2;
+import scala.collection.JavaConverters;
 
 import java.io.File;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Optional;
 
@@ -194,6 +202,8 @@ public class TestIndexMigration
             }
         }
 
+        connector.tableOperations().create(NGramIndex.getIndexTableName(newTable.getFullTableName()));
+
         metricsStorage.create(newTable);
         metadataManager.createTableMetadata(newTable);
     }
@@ -218,6 +228,10 @@ public class TestIndexMigration
             }
         }
 
+        if (connector.tableOperations().exists(NGramIndex.getIndexTableName(newTable.getFullTableName()))) {
+            connector.tableOperations().delete(NGramIndex.getIndexTableName(newTable.getFullTableName()));
+        }
+
         metricsStorage.drop(newTable);
         metadataManager.deleteTableMetadata(newTable.getSchemaTableName());
 
@@ -231,17 +245,68 @@ public class TestIndexMigration
     public void testOnlineMigration()
             throws Exception
     {
-        runMigration(false);
+        runMigration(false, ImmutableList.of(), 0);
     }
 
     @Test
     public void testOfflineMigration()
             throws Exception
     {
-        runMigration(true);
+        runMigration(true, ImmutableList.of(), 0);
     }
 
-    private void runMigration(boolean isOfflineScan)
+    @Test
+    public void testNGramMigration()
+            throws Exception
+    {
+        runMigration(false, ImmutableList.of(new Tuple2<>("cf", "firstname")), 0);
+
+        // Each n-gram of a first name is posted in the shard of its row
+        List<Key> expected = new ArrayList<>();
+        expected.addAll(ngramKeys(M1_ROWID, "", "ali", "lic", "ice"));
+        expected.addAll(ngramKeys(M2_ROWID, "private", "bob"));
+        expected.addAll(ngramKeys(M3_ROWID, "moreprivate", "car", "aro", "rol"));
+        Collections.sort(expected);
+
+        Scanner scan = connector.createScanner(NGramIndex.getIndexTableName(newTable.getFullTableName()), new Authorizations("private", "moreprivate"));
+        Iterator<Entry<Key, Value>> iter = scan.iterator();
+        for (Key key : expected) {
+            assertTrue(iter.hasNext());
+            assertKeyValuePair(iter.next(), key.getRow().copyBytes(), key.getColumnFamily().toString(), key.getColumnQualifier().toString(), key.getColumnVisibility().toString(), "");
+        }
+        assertFalse(iter.hasNext());
+        scan.close();
+    }
+
+    @Test
+    public void testHeavyHittersMigration()
+            throws Exception
+    {
+        runMigration(false, ImmutableList.of(), 10);
+
+        // None of the sketches written by each partition is full, so the merged sketches hold the exact counts
+        String metricsTable = HeavyHitters.getMetricsTableName(newTable.getFullTableName());
+        Authorizations auths = new Authorizations("private", "moreprivate");
+        assertEquals(HeavyHitters.getEstimate(connector, metricsTable, CF, AGE, AGE_VALUE, auths), 3);
+        assertEquals(HeavyHitters.getEstimate(connector, metricsTable, CF, BORN, TIMESTAMP_VALUE, auths), 3);
+        assertEquals(HeavyHitters.getEstimate(connector, metricsTable, CF, FIRSTNAME, M1_FNAME_VALUE, auths), 1);
+        assertEquals(HeavyHitters.getEstimate(connector, metricsTable, CF, FIRSTNAME, M2_FNAME_VALUE, auths), 1);
+        assertEquals(HeavyHitters.getEstimate(connector, metricsTable, CF, FIRSTNAME, M3_FNAME_VALUE, auths), 1);
+        assertEquals(HeavyHitters.getEstimate(connector, metricsTable, CF, SENDERS, bytes("abc"), auths), 2);
+        assertEquals(HeavyHitters.getEstimate(connector, metricsTable, CF, SENDERS, bytes("def"), auths), 2);
+        assertEquals(HeavyHitters.getEstimate(connector, metricsTable, CF, SENDERS, bytes("ghi"), auths), 3);
+        assertEquals(HeavyHitters.getEstimate(connector, metricsTable, CF, SENDERS, bytes("jkl"), auths), 1);
+        assertEquals(HeavyHitters.getEstimate(connector, metricsTable, CF, SENDERS, bytes("mno"), auths), 1);
+        assertEquals(HeavyHitters.getEstimate(connector, metricsTable, CF, SENDERS, bytes("xyz"), auths), 0);
+
+        List<SpaceSavingSketch.Counter> top = HeavyHitters.getSketch(connector, metricsTable, CF, SENDERS, auths).getTopK(1);
+        assertEquals(top.size(), 1);
+        assertEquals(top.get(0).getValue(), bytes("ghi"));
+        assertEquals(top.get(0).getCount(), 3);
+        assertEquals(top.get(0).getError(), 0);
+    }
+
+    private void runMigration(boolean isOfflineScan, List<Tuple2<String, String>> ngramColumns, int heavyHittersCapacity)
             throws Exception
     {
         PrestoBatchWriter prestoBatchWriter = new PrestoBatchWriter(connector, connector.securityOperations().getUserAuthorizations("root"), table);
@@ -275,7 +340,9 @@ public class TestIndexMigration
                 20,
                 isOfflineScan,
                 "output",
-                2);
+                2,
+                JavaConverters.asScalaBufferConverter(ngramColumns).asScala().toList(),
+                heavyHittersCapacity);
 
         Scanner scan = connector.createScanner(newTable.getFullTableName(), new Authorizations("private", "moreprivate"));
         Iterator<Entry<Key, Value>> iter = scan.iterator();
@@ -387,6 +454,15 @@ public class TestIndexMigration
         assertEquals(metricsStorage.newReader().getCardinality(mck(newTable.getParsedIndexColumns().get(1).getIndexTable(), "cf_arr", "mno", "private", "moreprivate")), 1);
     }
 
+    private static List<Key> ngramKeys(byte[] rowId, String visibility, String... ngrams)
+    {
+        List<Key> keys = new ArrayList<>();
+        for (String ngram : ngrams) {
+            keys.add(new Key(NGramIndex.getShard(rowId, NGramIndex.DEFAULT_NUM_SHARDS).copyBytes(), bytes("cf_firstname\u0000" + ngram), rowId, bytes(visibility), 0));
+        }
+        return keys;
+    }
+
     private static byte[] encode(Type type, Object v)
     {
         return SERIALIZER.encode(type, v);
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Bloomberg L.P.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.presto.accumulo.tools;
+
+import org.testng.annotations.Test;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestPageCache
+{
+    private static final int PAGE_SIZE = 10;
+
+    @Test
+    public void testGetAndPut()
+            throws Exception
+    {
+        try (PageCache cache = new PageCache(1 << 20)) {
+            assertNull(cache.get(0, PAGE_SIZE));
+
+            cache.put(0, PAGE_SIZE, createPage(0));
+            cache.put(PAGE_SIZE, 2 * PAGE_SIZE, createPage(PAGE_SIZE));
+            assertPage(cache.get(0, PAGE_SIZE), 0);
+            assertPage(cache.get(PAGE_SIZE, 2 * PAGE_SIZE), PAGE_SIZE);
+
+            // A page is only found with the offsets it was cached with
+            assertNull(cache.get(0, PAGE_SIZE / 2));
+            assertNull(cache.get(2 * PAGE_SIZE, 3 * PAGE_SIZE));
+
+            // Caching a page again replaces it
+            cache.put(0, PAGE_SIZE, createPage(100));
+            assertPage(cache.get(0, PAGE_SIZE), 100);
+        }
+    }
+
+    @Test
+    public void testEviction()
+            throws Exception
+    {
+        // Room for two pages but not three
+        try (PageCache cache = new PageCache(5 * getPageLength() / 2)) {
+            cache.put(0, PAGE_SIZE, createPage(0));
+            cache.put(PAGE_SIZE, 2 * PAGE_SIZE, createPage(PAGE_SIZE));
+
+            // Reading the first page makes the second the least recently used
+            assertNotNull(cache.get(0, PAGE_SIZE));
+            cache.put(2 * PAGE_SIZE, 3 * PAGE_SIZE, createPage(2 * PAGE_SIZE));
+            assertPage(cache.get(0, PAGE_SIZE), 0);
+            assertNull(cache.get(PAGE_SIZE, 2 * PAGE_SIZE));
+            assertPage(cache.get(2 * PAGE_SIZE, 3 * PAGE_SIZE), 2 * PAGE_SIZE);
+
+            // The space of evicted pages is reused
+            cache.put(3 * PAGE_SIZE, 4 * PAGE_SIZE, createPage(3 * PAGE_SIZE));
+            assertNull(cache.get(0, PAGE_SIZE));
+            assertPage(cache.get(2 * PAGE_SIZE, 3 * PAGE_SIZE), 2 * PAGE_SIZE);
+            assertPage(cache.get(3 * PAGE_SIZE, 4 * PAGE_SIZE), 3 * PAGE_SIZE);
+        }
+    }
+
+    @Test
+    public void testPageLargerThanCache()
+            throws Exception
+    {
+        try (PageCache cache = new PageCache(getPageLength() / 2)) {
+            cache.put(0, PAGE_SIZE, createPage(0));
+            assertNull(cache.get(0, PAGE_SIZE));
+        }
+    }
+
+    private static int getPageLength()
+            throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(createPage(0));
+        }
+        return bytes.size();
+    }
+
+    private static CachedRowSet createPage(int min)
+            throws SQLException
+    {
+        RowSetMetaDataImpl metadata = new RowSetMetaDataImpl();
+        metadata.setColumnCount(1);
+        metadata.setColumnName(1, "id");
+        metadata.setColumnType(1, Types.INTEGER);
+
+        CachedRowSet rows = RowSetProvider.newFactory().createCachedRowSet();
+        rows.setMetaData(metadata);
+        for (int i = min; i < min + PAGE_SIZE; ++i) {
+            // Rows are inserted after the current row, so append them after the last one
+            rows.last();
+            rows.moveToInsertRow();
+            rows.updateInt(1, i);
+            rows.insertRow();
+            rows.moveToCurrentRow();
+        }
+        return rows;
+    }
+
+    private static void assertPage(CachedRowSet rows, int min)
+            throws SQLException
+    {
+        assertNotNull(rows);
+        rows.beforeFirst();
+        for (int i = min; i < min + PAGE_SIZE; ++i) {
+            assertTrue(rows.next());
+            assertEquals(rows.getInt(1), i);
+        }
+        assertFalse(rows.next());
+    }
+}